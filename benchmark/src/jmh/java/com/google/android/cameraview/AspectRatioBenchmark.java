@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interning, parsing and matching {@link AspectRatio}s for every size a camera reports.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AspectRatioBenchmark {
+
+    private int[] mSizes;
+
+    private Size[] mSizeObjects;
+
+    private String[] mStrings;
+
+    private AspectRatio mRatio;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizes.BACK_CAMERA;
+        mSizeObjects = DeviceSizes.toSizes(mSizes);
+        mStrings = new String[mSizeObjects.length];
+        for (int i = 0; i < mStrings.length; i++) {
+            mStrings[i] = mSizeObjects[i].getWidth() + ":" + mSizeObjects[i].getHeight();
+        }
+        mRatio = AspectRatio.of(16, 9);
+    }
+
+    @Benchmark
+    public void of(Blackhole blackhole) {
+        for (int i = 0; i < mSizes.length; i += 2) {
+            blackhole.consume(AspectRatio.of(mSizes[i], mSizes[i + 1]));
+        }
+    }
+
+    /**
+     * The same as {@link #of(Blackhole)}, with camera threads and the main thread racing.
+     */
+    @Benchmark
+    @Threads(4)
+    public void of_contended(Blackhole blackhole) {
+        of(blackhole);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String s : mStrings) {
+            blackhole.consume(AspectRatio.parse(s));
+        }
+    }
+
+    @Benchmark
+    public int matches() {
+        int count = 0;
+        for (Size size : mSizeObjects) {
+            if (mRatio.matches(size)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Size lists as cameras report them, for the benchmarks. The lists are typical of shipping
+ * devices: a mix of 4:3, 16:9 and odd ratios, in no particular order, with duplicates across
+ * formats.
+ */
+final class DeviceSizes {
+
+    /**
+     * The JPEG, preview and YUV sizes of a 12 MP back camera, as packed {@code width, height}
+     * pairs.
+     */
+    static final int[] BACK_CAMERA = {
+            4032, 3024, 4000, 3000, 3984, 2988, 3840, 2160, 3264, 2448, 3264, 1836,
+            3200, 2400, 3024, 3024, 2976, 2976, 2880, 2160, 2592, 1944, 2560, 1920,
+            2560, 1440, 2448, 2448, 2304, 1728, 2048, 1536, 2048, 1152, 1920, 1440,
+            1920, 1088, 1920, 1080, 1920, 960, 1840, 1380, 1728, 1296, 1680, 1260,
+            1600, 1200, 1600, 900, 1536, 864, 1520, 720, 1440, 1080, 1440, 720,
+            1280, 960, 1280, 768, 1280, 720, 1280, 640, 1088, 1088, 1080, 1080,
+            1056, 704, 1024, 768, 1024, 576, 960, 720, 960, 540, 880, 720,
+            864, 480, 800, 600, 800, 480, 800, 450, 768, 432, 736, 736,
+            720, 720, 720, 480, 640, 480, 640, 360, 480, 640, 480, 360,
+            480, 320, 352, 288, 320, 240, 240, 320, 240, 160, 176, 144,
+            160, 120, 144, 176,
+    };
+
+    /**
+     * The preview and picture sizes of a Camera1 front camera.
+     */
+    static final int[] FRONT_CAMERA = {
+            2592, 1944, 2592, 1458, 2560, 1440, 2048, 1536, 2048, 1152, 1920, 1080,
+            1600, 1200, 1600, 900, 1440, 1080, 1280, 960, 1280, 720, 1088, 1088,
+            1024, 768, 960, 720, 960, 540, 800, 600, 800, 480, 720, 480,
+            640, 480, 640, 360, 352, 288, 320, 240, 176, 144,
+    };
+
+    static SizeMap toSizeMap(int[] sizes) {
+        final SizeMap map = new SizeMap();
+        for (int i = 0; i < sizes.length; i += 2) {
+            map.add(sizes[i], sizes[i + 1]);
+        }
+        return map;
+    }
+
+    static Size[] toSizes(int[] sizes) {
+        final Size[] result = new Size[sizes.length / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new Size(sizes[i * 2], sizes[i * 2 + 1]);
+        }
+        return result;
+    }
+
+    private DeviceSizes() {
+    }
+
+}
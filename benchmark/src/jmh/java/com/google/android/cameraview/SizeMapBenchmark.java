@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and querying a {@link SizeMap} from the sizes a camera reports.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SizeMapBenchmark {
+
+    @Param({"back", "front"})
+    public String camera;
+
+    private int[] mSizes;
+
+    private Size[] mSizeObjects;
+
+    private SizeMap mMap;
+
+    private AspectRatio mRatio;
+
+    @Setup
+    public void setUp() {
+        mSizes = "back".equals(camera) ? DeviceSizes.BACK_CAMERA : DeviceSizes.FRONT_CAMERA;
+        mSizeObjects = DeviceSizes.toSizes(mSizes);
+        mMap = DeviceSizes.toSizeMap(mSizes).snapshot();
+        mRatio = AspectRatio.of(4, 3);
+    }
+
+    @Benchmark
+    public SizeMap add() {
+        final SizeMap map = new SizeMap();
+        for (Size size : mSizeObjects) {
+            map.add(size);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public SizeMap add_packed() {
+        return DeviceSizes.toSizeMap(mSizes);
+    }
+
+    @Benchmark
+    public void ratiosAndSizes(Blackhole blackhole) {
+        for (AspectRatio ratio : mMap.ratios()) {
+            blackhole.consume(mMap.sizes(ratio).last());
+        }
+    }
+
+    @Benchmark
+    public Size sizes_iterate() {
+        Size result = null;
+        for (Size size : mMap.sizes(mRatio)) {
+            if (size.getWidth() >= 1920 && size.getHeight() >= 1080) {
+                return size;
+            }
+            result = size;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Size ceiling() {
+        return mMap.ceiling(mRatio, 1920, 1080);
+    }
+
+    @Benchmark
+    public Size largest() {
+        return mMap.largest(mRatio);
+    }
+
+    @Benchmark
+    public long[] pack() {
+        return mMap.pack();
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choosing preview and picture sizes, as the camera implementations do on each layout pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SizeSelectionBenchmark {
+
+    private static final String CAMERA_ID = "0";
+
+    private SizeMap mSizes;
+
+    private AspectRatio mRatio;
+
+    private SortedSet<Size> mCandidates;
+
+    private MemoizedSizeSelector mPreviewSelector;
+
+    private MemoizedSizeSelector mPictureSelector;
+
+    /**
+     * Changes on every call of {@link #memoized_miss()}, so that nothing is memoized.
+     */
+    private int mWidth;
+
+    @Setup
+    public void setUp() {
+        mSizes = DeviceSizes.toSizeMap(DeviceSizes.BACK_CAMERA).snapshot();
+        mRatio = AspectRatio.of(4, 3);
+        mCandidates = mSizes.sizes(mRatio);
+        mPreviewSelector = new MemoizedSizeSelector(SizeSelector.smallestCovering());
+        mPictureSelector = new MemoizedSizeSelector(SizeSelector.maxUnderMemory(
+                32 * 1024 * 1024, 4));
+    }
+
+    @Benchmark
+    public Size smallestCovering() {
+        return SizeSelector.smallestCovering().select(mCandidates, 1920, 1080);
+    }
+
+    @Benchmark
+    public Size closestTo() {
+        return SizeSelector.closestTo(2000000).select(mCandidates, 1920, 1080);
+    }
+
+    @Benchmark
+    public Size maxUnderMemory() {
+        return SizeSelector.maxUnderMemory(32 * 1024 * 1024, 4).select(mCandidates, 1920, 1080);
+    }
+
+    /**
+     * A layout pass that does not change anything.
+     */
+    @Benchmark
+    public Size memoized_hit() {
+        final Size preview = mPreviewSelector.select(CAMERA_ID, mSizes, mRatio, 1920, 1080);
+        return mPictureSelector.select(CAMERA_ID, mSizes, mRatio,
+                preview.getWidth(), preview.getHeight());
+    }
+
+    @Benchmark
+    public Size memoized_miss() {
+        mWidth = mWidth % 4000 + 1;
+        return mPreviewSelector.select(CAMERA_ID, mSizes, mRatio, mWidth, 1080);
+    }
+
+}
@@ -17,24 +17,43 @@
 package com.google.android.cameraview;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.v4.os.TraceCompat;
 import android.support.v4.util.SparseArrayCompat;
+import android.util.Log;
+import android.util.SparseIntArray;
 import android.view.SurfaceHolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.concurrent.atomic.AtomicBoolean;
-
 
 @SuppressWarnings("deprecation")
 class Camera1 extends CameraViewImpl {
 
+    private static final String TAG = "Camera1";
+
     private static final int INVALID_CAMERA_ID = -1;
 
+    private static final String CAPABILITY_STORE_FILE_NAME = "cameraview-camera1.bin";
+
+    /**
+     * The first camera ID of each facing. The cameras cannot change while the process runs, so
+     * this is only resolved once.
+     */
+    private static SparseIntArray sCameraIdsByFacing;
+
     private static final SparseArrayCompat<String> FLASH_MODES = new SparseArrayCompat<>();
 
     static {
@@ -47,62 +66,304 @@ class Camera1 extends CameraViewImpl {
 
     private int mCameraId;
 
-    private final AtomicBoolean isPictureCaptureInProgress = new AtomicBoolean(false);
+    /**
+     * {@link #mCameraId} as a string, for {@link MemoizedSizeSelector}.
+     */
+    private String mCameraIdString;
 
-    Camera mCamera;
+    /**
+     * The bursts being taken and waiting to be taken. Only accessed on {@link #mBackgroundThread}.
+     */
+    private final BurstQueue mBurstQueue = new BurstQueue();
+
+    /**
+     * The preview frame rate range in frames per second times 1000, as the camera reports it.
+     */
+    private final int[] mPreviewFpsRange = new int[2];
+
+    /**
+     * The camera. It is only used on {@link #mBackgroundThread}, but other threads check whether it
+     * is open.
+     */
+    volatile Camera mCamera;
 
     private Camera.Parameters mCameraParameters;
 
+    /**
+     * The thread on which the camera is opened, configured and released. Camera callbacks are
+     * delivered on this thread as well, and {@link CameraView} posts the events to the main
+     * thread.
+     */
+    private HandlerThread mBackgroundThread;
+
+    private Handler mBackgroundHandler;
+
+    /**
+     * The background thread of the previous session, which may still be releasing the camera.
+     */
+    private HandlerThread mPreviousThread;
+
+    /**
+     * The aspect ratios supported by the open camera, for the caller's thread.
+     */
+    private volatile Set<AspectRatio> mSupportedAspectRatios = Collections.emptySet();
+
+    /**
+     * {@code true} if the open camera is in continuous focus mode.
+     */
+    private volatile boolean mContinuousFocus;
+
+    /**
+     * {@code true} while the continuous autofocus is known to have settled, as reported by its
+     * {@link Camera.AutoFocusMoveCallback}. Pictures are taken without an autofocus pass then.
+     */
+    private volatile boolean mFocusSettled;
+
     private final Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
 
-    private final SizeMap mPreviewSizes = new SizeMap();
+    /**
+     * Immutable snapshots of the size tables of the open camera.
+     */
+    private volatile SizeMap mPreviewSizes = new SizeMap().snapshot();
 
-    private final SizeMap mPictureSizes = new SizeMap();
+    private volatile SizeMap mPictureSizes = new SizeMap().snapshot();
 
-    private AspectRatio mAspectRatio;
+    /**
+     * Remembers what the cameras support across launches, so that the supported aspect ratios
+     * are known before the camera is open.
+     */
+    private final CapabilityStore mCapabilityStore;
+
+    private volatile AspectRatio mAspectRatio;
 
     private boolean mShowingPreview;
 
-    private boolean mAutoFocus;
+    private volatile boolean mAutoFocus;
+
+    private volatile int mFacing;
 
-    private int mFacing;
+    private volatile int mFlash;
 
-    private int mFlash;
+    private volatile int mDisplayOrientation;
 
-    private int mDisplayOrientation;
+    /**
+     * The buffers that the camera fills with preview frames for {@link #mFrameAnalyzer}.
+     */
+    private FrameBuffer[] mFrameBuffers;
+
+    private final Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            final FrameBuffer buffer = findFrameBuffer(data);
+            if (buffer == null) { // Left over from a previous preview size
+                return;
+            }
+            buffer.mTimestamp = System.nanoTime();
+            mBufferDispatcher.offer(buffer);
+        }
+    };
+
+    private final FrameDispatcher<FrameBuffer> mBufferDispatcher
+            = new FrameDispatcher<FrameBuffer>("CameraFrames") {
 
-    Camera1(Callback callback, PreviewImpl preview) {
+        @Override
+        void onDeliver(FrameBuffer buffer) {
+            final FrameAnalyzer analyzer = mFrameAnalyzer;
+            if (analyzer == null) {
+                return;
+            }
+            buffer.mY.clear();
+            buffer.mVU.clear();
+            mFrame.set(ImageFormat.NV21, buffer.mWidth, buffer.mHeight, buffer.mTimestamp,
+                    calcFrameRotation(mDisplayOrientation));
+            mFrame.addPlane(buffer.mY, buffer.mWidth, 1);
+            mFrame.addPlane(buffer.mVU, buffer.mWidth, 2);
+            analyzer.analyze(mFrame);
+            mFrame.clear();
+        }
+
+        @Override
+        void onRelease(FrameBuffer buffer) {
+            // Give the buffer back to the camera unless it has been reallocated meanwhile.
+            final Camera camera = mCamera;
+            if (camera != null && findFrameBuffer(buffer.mData) == buffer) {
+                camera.addCallbackBuffer(buffer.mData);
+            }
+        }
+
+    };
+
+    Camera1(Callback callback, PreviewImpl preview, Context context) {
         super(callback, preview);
+        mCapabilityStore = CapabilityStore.open(
+                new File(context.getApplicationContext().getCacheDir(),
+                        CAPABILITY_STORE_FILE_NAME),
+                Build.FINGERPRINT);
+        mFrameDispatcher = mBufferDispatcher;
         preview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
-                if (mCamera != null) {
-                    setUpPreview();
-                    adjustCameraParameters();
-                }
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCamera != null) {
+                            setUpPreview();
+                            adjustCameraParameters();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFrame(long timestamp) {
+                // Camera1 has no frame timestamps of its own; the preview reports the displayed
+                // frames.
+                mFrameRateTracker.onFrame(timestamp);
+                onPreviewFrame();
             }
         });
     }
 
+    /**
+     * Opens the camera on {@link #mBackgroundThread} and returns right away.
+     * {@link Callback#onCameraOpened()} is called once the preview is started.
+     */
     @Override
     boolean start() {
-        chooseCamera();
-        openCamera();
+        mStartupTimeline = StartupTimeline.start();
+        startBackgroundThread();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Until the camera is open, assume it supports what it did last time. The store
+                // is loaded here, off the main thread.
+                for (CameraCapabilities capabilities : mCapabilityStore.getAll()) {
+                    if (capabilities.facing == mFacing && capabilities.hasSizes()) {
+                        mSupportedAspectRatios = capabilities.getSupportedAspectRatios();
+                        break;
+                    }
+                }
+                openCameraAndStartPreview();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Opens the camera of {@link #mFacing} and starts the preview. This runs on
+     * {@link #mBackgroundThread}.
+     */
+    void openCameraAndStartPreview() {
+        mFrameRateTracker.reset();
+        TraceCompat.beginSection("CameraView:chooseCamera");
+        try {
+            chooseCamera();
+        } finally {
+            TraceCompat.endSection();
+        }
+        markStartup(StartupTimeline.EVENT_CAMERA_CHOSEN);
+        if (mCameraId == INVALID_CAMERA_ID) {
+            Log.e(TAG, "No camera is facing " + mFacing);
+            return;
+        }
+        try {
+            openCamera();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to open the camera.", e);
+            releaseCamera();
+            return;
+        }
         if (mPreview.isReady()) {
             setUpPreview();
         }
+        if (mFrameAnalyzer != null) {
+            mBufferDispatcher.start();
+        }
         mShowingPreview = true;
-        mCamera.startPreview();
-        return true;
+        TraceCompat.beginSection("CameraView:startPreview");
+        try {
+            mCamera.startPreview();
+        } finally {
+            TraceCompat.endSection();
+        }
+        markStartup(StartupTimeline.EVENT_PREVIEW_STARTED);
+        mCallback.onCameraOpened();
+        // Bursts requested before a switch of cameras
+        startNextBurst();
     }
 
+    /**
+     * Releases the camera on {@link #mBackgroundThread} and returns right away.
+     * {@link Callback#onCameraClosed()} is called once the camera is released.
+     */
     @Override
     void stop() {
-        if (mCamera != null) {
-            mCamera.stopPreview();
+        if (mBackgroundHandler == null) {
+            return;
+        }
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera != null) {
+                    mCamera.stopPreview();
+                }
+                mShowingPreview = false;
+                mBurstQueue.clear();
+                mBufferDispatcher.stop();
+                releaseCamera();
+            }
+        });
+        stopBackgroundThread();
+    }
+
+    private void startBackgroundThread() {
+        if (mBackgroundThread != null) {
+            return;
+        }
+        mBackgroundThread = new HandlerThread("CameraBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        final HandlerThread previous = mPreviousThread;
+        mPreviousThread = null;
+        if (previous != null) {
+            // The camera can only be opened again once the previous thread has released it.
+            mBackgroundHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        previous.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Lets {@link #mBackgroundThread} finish the work posted so far, and detaches it.
+     */
+    private void stopBackgroundThread() {
+        // HandlerThread#quitSafely() is not available before API 18.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myLooper().quit();
+            }
+        });
+        mPreviousThread = mBackgroundThread;
+        mBackgroundThread = null;
+        mBackgroundHandler = null;
+    }
+
+    /**
+     * Runs {@code runnable} on {@link #mBackgroundThread}, if the camera is started.
+     */
+    private void runOnCameraThread(Runnable runnable) {
+        final Handler handler = mBackgroundHandler;
+        if (handler != null) {
+            handler.post(runnable);
         }
-        mShowingPreview = false;
-        releaseCamera();
     }
 
     // Suppresses Camera#setPreviewTexture
@@ -137,10 +398,25 @@ class Camera1 extends CameraViewImpl {
             return;
         }
         mFacing = facing;
-        if (isCameraOpened()) {
-            stop();
-            start();
-        }
+        // Switch cameras on the camera thread, without stopping it. The preview surface and the
+        // frame dispatcher stay as they are.
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera != null) {
+                    if (mCameraInfo.facing == mFacing) { // Already switched by a later call
+                        return;
+                    }
+                    mCamera.stopPreview();
+                    mShowingPreview = false;
+                    // The waiting bursts are taken with the new camera.
+                    mBurstQueue.abort();
+                    releaseCamera();
+                }
+                mStartupTimeline = StartupTimeline.start();
+                openCameraAndStartPreview();
+            }
+        });
     }
 
     @Override
@@ -150,13 +426,7 @@ class Camera1 extends CameraViewImpl {
 
     @Override
     Set<AspectRatio> getSupportedAspectRatios() {
-        SizeMap idealAspectRatios = mPreviewSizes;
-        for (AspectRatio aspectRatio : idealAspectRatios.ratios()) {
-            if (mPictureSizes.sizes(aspectRatio) == null) {
-                idealAspectRatios.remove(aspectRatio);
-            }
-        }
-        return idealAspectRatios.ratios();
+        return mSupportedAspectRatios;
     }
 
     @Override
@@ -166,31 +436,55 @@ class Camera1 extends CameraViewImpl {
             mAspectRatio = ratio;
             return true;
         } else if (!mAspectRatio.equals(ratio)) {
-            final Set<Size> sizes = mPreviewSizes.sizes(ratio);
-            if (sizes == null) {
+            if (!mSupportedAspectRatios.contains(ratio)) {
                 throw new UnsupportedOperationException(ratio + " is not supported");
             } else {
                 mAspectRatio = ratio;
-                adjustCameraParameters();
+                runOnCameraThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isCameraOpened()) {
+                            adjustCameraParameters();
+                        }
+                    }
+                });
                 return true;
             }
         }
         return false;
     }
 
+    @Override
+    void onSizeSelectorChanged() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened()) {
+                    adjustCameraParameters();
+                }
+            }
+        });
+    }
+
     @Override
     AspectRatio getAspectRatio() {
         return mAspectRatio;
     }
 
     @Override
-    void setAutoFocus(boolean autoFocus) {
+    void setAutoFocus(final boolean autoFocus) {
         if (mAutoFocus == autoFocus) {
             return;
         }
-        if (setAutoFocusInternal(autoFocus)) {
-            mCamera.setParameters(mCameraParameters);
-        }
+        mAutoFocus = autoFocus;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (setAutoFocusInternal(autoFocus)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
@@ -198,18 +492,27 @@ class Camera1 extends CameraViewImpl {
         if (!isCameraOpened()) {
             return mAutoFocus;
         }
-        String focusMode = mCameraParameters.getFocusMode();
-        return focusMode != null && focusMode.contains("continuous");
+        return mContinuousFocus;
     }
 
     @Override
-    void setFlash(int flash) {
+    void setFlash(final int flash) {
         if (flash == mFlash) {
             return;
         }
-        if (setFlashInternal(flash)) {
-            mCamera.setParameters(mCameraParameters);
+        if (mBackgroundHandler == null) {
+            mFlash = flash;
+            return;
         }
+        // mFlash is updated once the camera tells whether the mode is supported.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (setFlashInternal(flash)) {
+                    mCamera.setParameters(mCameraParameters);
+                }
+            }
+        });
     }
 
     @Override
@@ -219,35 +522,113 @@ class Camera1 extends CameraViewImpl {
 
     @Override
     void takePicture() {
-        if (!isCameraOpened()) {
-            throw new IllegalStateException(
-                    "Camera is not ready. Call start() before takePicture().");
-        }
-        if (getAutoFocus()) {
+        takeBurst(1, null);
+    }
+
+    /**
+     * Takes the pictures on {@link #mBackgroundThread}. A request made while the camera is still
+     * being opened waits there for the open to complete, and one made while another burst is
+     * being taken waits for that burst to finish. It is ignored if the camera is not started, or
+     * fails to open.
+     */
+    @Override
+    void takeBurst(final int count, PictureSaver.Destination destination) {
+        final CaptureTimeline timeline = CaptureTimeline.start(destination);
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isCameraOpened() && mBurstQueue.offer(count, timeline)) {
+                    startBurst(count, timeline);
+                }
+            }
+        });
+    }
+
+    /**
+     * Locks the focus if needed, and takes a burst. This runs on {@link #mBackgroundThread}.
+     */
+    private void startBurst(final int count, final CaptureTimeline timeline) {
+        if (getAutoFocus() && !mFocusSettled) {
             mCamera.cancelAutoFocus();
+            timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKING);
             mCamera.autoFocus(new Camera.AutoFocusCallback() {
                 @Override
                 public void onAutoFocus(boolean success, Camera camera) {
-                    takePictureInternal();
+                    timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKED);
+                    takePictureInternal(count, timeline);
                 }
             });
         } else {
-            takePictureInternal();
+            takePictureInternal(count, timeline);
         }
     }
 
-    void takePictureInternal() {
-        if (!isPictureCaptureInProgress.getAndSet(true)) {
-            mCamera.takePicture(null, null, null, new Camera.PictureCallback() {
-                @Override
-                public void onPictureTaken(byte[] data, Camera camera) {
-                    isPictureCaptureInProgress.set(false);
-                    mCallback.onPictureTaken(data);
-                    camera.cancelAutoFocus();
-                    camera.startPreview();
+    /**
+     * Starts the burst whose turn has come in {@link #mBurstQueue}, if any.
+     */
+    private void startNextBurst() {
+        final BurstQueue.Request next = mBurstQueue.next();
+        if (next != null) {
+            startBurst(next.mCount, next.mTimeline);
+        }
+    }
+
+    @Override
+    void setZeroShutterLag(int depth, long maxMemory) {
+        // Camera1 cannot stream full resolution frames; pictures are always taken on demand.
+    }
+
+    @Override
+    boolean isZeroShutterLagActive() {
+        return false;
+    }
+
+    void takePictureInternal(int count, CaptureTimeline timeline) {
+        if (mCamera == null) { // Released while the focus was locking
+            return;
+        }
+        final Camera.Size size = mCameraParameters.getPictureSize();
+        new BurstCallback(count, timeline, new Size(size.width, size.height))
+                .takeNext(mCamera);
+    }
+
+    @Override
+    void setFrameAnalyzer(FrameAnalyzer analyzer) {
+        mFrameAnalyzer = analyzer;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCameraOpened()) {
+                    return;
                 }
-            });
+                final boolean analyzing = mFrameAnalyzer != null;
+                if (analyzing) {
+                    mBufferDispatcher.start();
+                }
+                setUpFrameCallback();
+                if (!analyzing) {
+                    mBufferDispatcher.stop();
+                }
+            }
+        });
+    }
+
+    @Override
+    void setFrameBackpressure(final int strategy, final int capacity) {
+        if (mBackgroundHandler == null) {
+            restartFrameDispatcher(strategy, capacity);
+            return;
         }
+        // The frame buffers are sized for the dispatcher, so both change on the camera thread.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                restartFrameDispatcher(strategy, capacity);
+                if (isCameraOpened()) {
+                    setUpFrameCallback();
+                }
+            }
+        });
     }
 
     @Override
@@ -256,57 +637,138 @@ class Camera1 extends CameraViewImpl {
             return;
         }
         mDisplayOrientation = displayOrientation;
-        if (isCameraOpened()) {
-            mCameraParameters.setRotation(calcCameraRotation(displayOrientation));
-            mCamera.setParameters(mCameraParameters);
-            final boolean needsToStopPreview = mShowingPreview && Build.VERSION.SDK_INT < 14;
-            if (needsToStopPreview) {
-                mCamera.stopPreview();
-            }
-            mCamera.setDisplayOrientation(calcDisplayOrientation(displayOrientation));
-            if (needsToStopPreview) {
-                mCamera.startPreview();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCameraOpened()) {
+                    return;
+                }
+                final int displayOrientation = mDisplayOrientation;
+                mCameraParameters.setRotation(calcCameraRotation(displayOrientation));
+                mCamera.setParameters(mCameraParameters);
+                final boolean needsToStopPreview = mShowingPreview && Build.VERSION.SDK_INT < 14;
+                if (needsToStopPreview) {
+                    mCamera.stopPreview();
+                }
+                mCamera.setDisplayOrientation(calcDisplayOrientation(displayOrientation));
+                if (needsToStopPreview) {
+                    mCamera.startPreview();
+                }
             }
-        }
+        });
     }
 
     /**
      * This rewrites {@link #mCameraId} and {@link #mCameraInfo}.
      */
     private void chooseCamera() {
-        for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
-            Camera.getCameraInfo(i, mCameraInfo);
-            if (mCameraInfo.facing == mFacing) {
-                mCameraId = i;
-                return;
+        mCameraId = getCameraIdsByFacing().get(mFacing, INVALID_CAMERA_ID);
+        if (mCameraId != INVALID_CAMERA_ID) {
+            mCameraIdString = String.valueOf(mCameraId);
+            Camera.getCameraInfo(mCameraId, mCameraInfo);
+        }
+    }
+
+    private static synchronized SparseIntArray getCameraIdsByFacing() {
+        if (sCameraIdsByFacing == null) {
+            final SparseIntArray ids = new SparseIntArray();
+            final Camera.CameraInfo info = new Camera.CameraInfo();
+            for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
+                Camera.getCameraInfo(i, info);
+                if (ids.indexOfKey(info.facing) < 0) {
+                    ids.put(info.facing, i);
+                }
             }
+            sCameraIdsByFacing = ids;
         }
-        mCameraId = INVALID_CAMERA_ID;
+        return sCameraIdsByFacing;
     }
 
     private void openCamera() {
         if (mCamera != null) {
             releaseCamera();
         }
-        mCamera = Camera.open(mCameraId);
+        markStartup(StartupTimeline.EVENT_OPEN_REQUESTED);
+        TraceCompat.beginSection("CameraView:Camera.open");
+        try {
+            mCamera = Camera.open(mCameraId);
+        } finally {
+            TraceCompat.endSection();
+        }
+        markStartup(StartupTimeline.EVENT_OPENED);
         mCameraParameters = mCamera.getParameters();
         // Supported preview sizes
-        mPreviewSizes.clear();
+        final SizeMap previewSizes = new SizeMap();
         for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
-            mPreviewSizes.add(new Size(size.width, size.height));
+            previewSizes.add(size.width, size.height);
         }
         // Supported picture sizes;
-        mPictureSizes.clear();
+        final SizeMap pictureSizes = new SizeMap();
         for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
-            mPictureSizes.add(new Size(size.width, size.height));
+            pictureSizes.add(size.width, size.height);
+        }
+        // Only the aspect ratios that have picture sizes are supported
+        for (AspectRatio ratio : previewSizes.ratios()) {
+            if (pictureSizes.sizes(ratio) == null) {
+                previewSizes.remove(ratio);
+            }
         }
+        mPreviewSizes = previewSizes.snapshot();
+        mPictureSizes = pictureSizes.snapshot();
+        mSupportedAspectRatios = mPreviewSizes.ratios();
+        recordCapabilities();
+        markStartup(StartupTimeline.EVENT_CHARACTERISTICS_READ);
         // AspectRatio
         if (mAspectRatio == null) {
             mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
         }
         adjustCameraParameters();
         mCamera.setDisplayOrientation(calcDisplayOrientation(mDisplayOrientation));
-        mCallback.onCameraOpened();
+    }
+
+    /**
+     * Records what the open camera supports in {@link #mCapabilityStore}, and writes it on
+     * {@link #mBackgroundThread} if it changed.
+     */
+    private void recordCapabilities() {
+        int focusModes = 0;
+        final List<String> supportedFocusModes = mCameraParameters.getSupportedFocusModes();
+        if (supportedFocusModes != null) {
+            for (String mode : supportedFocusModes) {
+                if (mode.startsWith("continuous")) {
+                    focusModes |= CameraCapabilities.FOCUS_CONTINUOUS;
+                } else if (Camera.Parameters.FOCUS_MODE_FIXED.equals(mode) ||
+                        Camera.Parameters.FOCUS_MODE_INFINITY.equals(mode)) {
+                    focusModes |= CameraCapabilities.FOCUS_FIXED;
+                } else {
+                    focusModes |= CameraCapabilities.FOCUS_AUTO;
+                }
+            }
+        }
+        int flashModes = 0;
+        final List<String> supportedFlashModes = mCameraParameters.getSupportedFlashModes();
+        if (supportedFlashModes != null) {
+            for (int i = 0, count = FLASH_MODES.size(); i < count; i++) {
+                if (supportedFlashModes.contains(FLASH_MODES.valueAt(i))) {
+                    flashModes |= 1 << FLASH_MODES.keyAt(i);
+                }
+            }
+        }
+        final CameraCapabilities capabilities = new CameraCapabilities(
+                mCameraIdString, mCameraInfo.facing, -1, mCameraInfo.orientation,
+                focusModes, flashModes, 0, mPreviewSizes, mPictureSizes, null);
+        if (mCapabilityStore.put(capabilities)) {
+            final Handler handler = mBackgroundHandler;
+            if (handler != null) { // Otherwise the camera is being stopped; it is saved next time.
+                mCapabilityStore.saveInBackground(handler);
+            }
+        } else {
+            // Keep using the same tables as the last time, so that the sizes memoized for them
+            // are still valid.
+            final CameraCapabilities stored = mCapabilityStore.get(mCameraIdString);
+            mPreviewSizes = stored.previewSizes;
+            mPictureSizes = stored.pictureSizes;
+        }
     }
 
     private AspectRatio chooseAspectRatio() {
@@ -321,34 +783,97 @@ class Camera1 extends CameraViewImpl {
     }
 
     void adjustCameraParameters() {
-        SortedSet<Size> sizes = mPreviewSizes.sizes(mAspectRatio);
-        if (sizes == null) { // Not supported
+        if (mPreviewSizes.sizes(mAspectRatio) == null) { // Not supported
             mAspectRatio = chooseAspectRatio();
-            sizes = mPreviewSizes.sizes(mAspectRatio);
         }
-        Size size = chooseOptimalSize(sizes);
+        Size size = chooseOptimalSize(mAspectRatio);
 
         // Always re-apply camera parameters
-        // Largest picture size in this ratio
-        final Size pictureSize = mPictureSizes.sizes(mAspectRatio).last();
-        if (mShowingPreview) {
+        final Size pictureSize = mPictureSizeSelector.select(mCameraIdString, mPictureSizes,
+                mAspectRatio, size.getWidth(), size.getHeight());
+        // The preview only has to be restarted when its size changes. The picture size can be
+        // changed while it is running.
+        final Camera.Size currentSize = mCameraParameters.getPreviewSize();
+        final boolean restartPreview = mShowingPreview && (currentSize == null ||
+                currentSize.width != size.getWidth() || currentSize.height != size.getHeight());
+        if (restartPreview) {
             mCamera.stopPreview();
+            mFrameRateTracker.pause();
         }
         mCameraParameters.setPreviewSize(size.getWidth(), size.getHeight());
         mCameraParameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
         mCameraParameters.setRotation(calcCameraRotation(mDisplayOrientation));
         setAutoFocusInternal(mAutoFocus);
         setFlashInternal(mFlash);
-        mCamera.setParameters(mCameraParameters);
-        if (mShowingPreview) {
+        markStartup(StartupTimeline.EVENT_CONFIGURE_REQUESTED);
+        TraceCompat.beginSection("CameraView:setParameters");
+        try {
+            mCamera.setParameters(mCameraParameters);
+        } finally {
+            TraceCompat.endSection();
+        }
+        markStartup(StartupTimeline.EVENT_CONFIGURED);
+        mCameraParameters.getPreviewFpsRange(mPreviewFpsRange);
+        mFrameRateTracker.setTargetFrameRate(
+                (mPreviewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] + 500) / 1000,
+                (mPreviewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] + 500) / 1000);
+        setUpFrameCallback();
+        if (restartPreview) {
             mCamera.startPreview();
         }
     }
 
+    /**
+     * <p>Starts or stops streaming preview frames to {@link #mFrameAnalyzer}. The frame buffers
+     * are reallocated only when the preview size or the backpressure strategy changes.</p>
+     * <p>The buffers are the backpressure: the camera skips frames when none is available. To
+     * drop frames in {@link #mBufferDispatcher} instead, there is one more buffer than the
+     * dispatcher can hold along with the one being analyzed. With
+     * {@link Constants#BACKPRESSURE_BLOCK}, there is no spare buffer, so that the camera thread is
+     * never blocked by the dispatcher.</p>
+     */
+    private void setUpFrameCallback() {
+        // This also drops the buffers queued in the camera.
+        mCamera.setPreviewCallbackWithBuffer(null);
+        if (mFrameAnalyzer == null) {
+            mFrameBuffers = null;
+            return;
+        }
+        final Camera.Size size = mCameraParameters.getPreviewSize();
+        final int length = size.width * size.height *
+                ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        final int count = mBufferDispatcher.getCapacity() +
+                (mBufferDispatcher.getStrategy() == FrameDispatcher.BLOCK ? 1 : 2);
+        if (mFrameBuffers == null || mFrameBuffers.length != count ||
+                mFrameBuffers[0].mData.length != length || mFrameBuffers[0].mWidth != size.width) {
+            final FrameBuffer[] buffers = new FrameBuffer[count];
+            for (int i = 0; i < count; i++) {
+                buffers[i] = new FrameBuffer(size.width, size.height, length);
+            }
+            mFrameBuffers = buffers;
+        }
+        for (FrameBuffer buffer : mFrameBuffers) {
+            mCamera.addCallbackBuffer(buffer.mData);
+        }
+        mCamera.setPreviewCallbackWithBuffer(mPreviewCallback);
+    }
+
+    FrameBuffer findFrameBuffer(byte[] data) {
+        final FrameBuffer[] buffers = mFrameBuffers;
+        if (buffers != null) {
+            for (FrameBuffer buffer : buffers) {
+                if (buffer.mData == data) {
+                    return buffer;
+                }
+            }
+        }
+        return null;
+    }
+
     @SuppressWarnings("SuspiciousNameCombination")
-    private Size chooseOptimalSize(SortedSet<Size> sizes) {
+    private Size chooseOptimalSize(AspectRatio ratio) {
         if (!mPreview.isReady()) { // Not yet laid out
-            return sizes.first(); // Return the smallest size
+            return mPreviewSizes.sizes(ratio).first(); // Return the smallest size
         }
         int desiredWidth;
         int desiredHeight;
@@ -361,18 +886,29 @@ class Camera1 extends CameraViewImpl {
             desiredWidth = surfaceWidth;
             desiredHeight = surfaceHeight;
         }
-        Size result = null;
-        for (Size size : sizes) { // Iterate from small to large
-            if (desiredWidth <= size.getWidth() && desiredHeight <= size.getHeight()) {
-                return size;
+        return mPreviewSizeSelector.select(mCameraIdString, mPreviewSizes, ratio,
+                desiredWidth, desiredHeight);
+    }
 
-            }
-            result = size;
+    /**
+     * Follows the continuous autofocus in {@link #mFocusSettled}.
+     */
+    @TargetApi(16)
+    private void setAutoFocusMoveCallback(boolean continuous) {
+        if (!continuous) {
+            mCamera.setAutoFocusMoveCallback(null);
+            return;
         }
-        return result;
+        mCamera.setAutoFocusMoveCallback(new Camera.AutoFocusMoveCallback() {
+            @Override
+            public void onAutoFocusMoving(boolean start, Camera camera) {
+                mFocusSettled = !start;
+            }
+        });
     }
 
     private void releaseCamera() {
+        mFocusSettled = false;
         if (mCamera != null) {
             mCamera.release();
             mCamera = null;
@@ -419,6 +955,20 @@ class Camera1 extends CameraViewImpl {
         }
     }
 
+    /**
+     * Calculate the clockwise rotation that makes preview frames upright on the display
+     *
+     * @param screenOrientationDegrees Screen orientation in degrees
+     * @return Number of degrees to rotate frames in order for them to view correctly.
+     */
+    int calcFrameRotation(int screenOrientationDegrees) {
+        if (mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (mCameraInfo.orientation + screenOrientationDegrees) % 360;
+        } else {  // back-facing
+            return (mCameraInfo.orientation - screenOrientationDegrees + 360) % 360;
+        }
+    }
+
     /**
      * Test if the supplied orientation is in landscape.
      *
@@ -446,6 +996,12 @@ class Camera1 extends CameraViewImpl {
             } else {
                 mCameraParameters.setFocusMode(modes.get(0));
             }
+            final String focusMode = mCameraParameters.getFocusMode();
+            mContinuousFocus = focusMode != null && focusMode.contains("continuous");
+            mFocusSettled = false;
+            if (Build.VERSION.SDK_INT >= 16) {
+                setAutoFocusMoveCallback(mContinuousFocus);
+            }
             return true;
         } else {
             return false;
@@ -477,4 +1033,93 @@ class Camera1 extends CameraViewImpl {
         }
     }
 
+    /**
+     * A preview buffer in NV21, with its planes wrapped once so that delivering a frame does not
+     * allocate anything.
+     */
+    private static class FrameBuffer {
+
+        final byte[] mData;
+
+        final int mWidth;
+
+        final int mHeight;
+
+        final ByteBuffer mY;
+
+        final ByteBuffer mVU;
+
+        long mTimestamp;
+
+        FrameBuffer(int width, int height, int length) {
+            mData = new byte[length];
+            mWidth = width;
+            mHeight = height;
+            final int ySize = width * height;
+            mY = ByteBuffer.wrap(mData, 0, ySize).slice();
+            mVU = ByteBuffer.wrap(mData, ySize, length - ySize).slice();
+        }
+
+    }
+
+    /**
+     * Takes the pictures of a burst one after another, and records the timeline of each of them.
+     */
+    private class BurstCallback implements Camera.ShutterCallback, Camera.PictureCallback {
+
+        private final int mCount;
+
+        private final CaptureTimeline mTimeline;
+
+        /**
+         * The picture size the camera was set to, before the rotation.
+         */
+        private final Size mPictureSize;
+
+        private int mIndex;
+
+        private CaptureTimeline mShot;
+
+        BurstCallback(int count, CaptureTimeline timeline, Size pictureSize) {
+            mCount = count;
+            mTimeline = timeline;
+            mPictureSize = pictureSize;
+        }
+
+        void takeNext(Camera camera) {
+            mShot = mTimeline.forShot(mIndex, mCount);
+            mShot.mark(CaptureTimeline.EVENT_CAPTURING);
+            camera.takePicture(this, null, null, this);
+        }
+
+        @Override
+        public void onShutter() {
+            mShot.mark(CaptureTimeline.EVENT_SHUTTER);
+        }
+
+        @Override
+        public void onPictureTaken(byte[] data, Camera camera) {
+            final CaptureTimeline shot = mShot;
+            shot.mark(CaptureTimeline.EVENT_IMAGE_AVAILABLE);
+            final boolean last = ++mIndex == mCount;
+            if (!last) {
+                // Start the next shot before handing over this one, so that the camera works on it
+                // while the callbacks run.
+                camera.startPreview();
+                takeNext(camera);
+            }
+            // Some devices only apply Camera.Parameters#setRotation as an EXIF tag, and some apply
+            // it twice; fix the tag in place rather than re-encoding the picture.
+            final int rotation = Exif.normalizeOrientation(ByteBuffer.wrap(data),
+                    mPictureSize.getWidth(), mPictureSize.getHeight());
+            mCallback.onPictureTaken(new Picture(data).setTimeline(shot).setRotation(rotation));
+            if (last) {
+                camera.cancelAutoFocus();
+                camera.startPreview();
+                startNextBurst();
+            }
+        }
+
+    }
+
 }
@@ -59,6 +59,7 @@ class TextureViewPreview extends PreviewImpl {
 
             @Override
             public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+                dispatchFrame(surface.getTimestamp());
             }
         });
     }
@@ -19,26 +19,38 @@ package com.google.android.cameraview;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v4.os.TraceCompat;
 import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.Range;
 import android.util.SparseIntArray;
 import android.view.Surface;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
 
 @SuppressWarnings("MissingPermission")
 @TargetApi(21)
@@ -63,14 +75,44 @@ class Camera2 extends CameraViewImpl {
      */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
 
+    /**
+     * The JPEG quality of pictures taken from the zero shutter lag ring.
+     */
+    private static final int ZSL_JPEG_QUALITY = 95;
+
+    /**
+     * The number of frame-sized arrays that {@link #mZslPool} keeps.
+     */
+    private static final int ZSL_POOLED_FRAMES = 3;
+
+    private static final long NO_SHUTTER = Long.MIN_VALUE;
+
+    private static final int UNKNOWN_STATE = -1;
+
     private final CameraManager mCameraManager;
 
+    private final CameraInfoCache mCameraInfoCache;
+
     private final CameraDevice.StateCallback mCameraDeviceCallback
             = new CameraDevice.StateCallback() {
 
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
+            if (!isCurrentBackgroundThread()) {
+                // stop() was called while the camera was being opened. mOpening belongs to the
+                // next thread by now.
+                camera.close();
+                return;
+            }
+            if (!camera.getId().equals(mCameraId)) {
+                // The facing was switched while the camera was being opened. The camera of the
+                // new facing is still being opened.
+                camera.close();
+                return;
+            }
+            mOpening = false;
             mCamera = camera;
+            markStartup(StartupTimeline.EVENT_OPENED);
             mCallback.onCameraOpened();
             startCaptureSession();
         }
@@ -78,17 +120,35 @@ class Camera2 extends CameraViewImpl {
         @Override
         public void onClosed(@NonNull CameraDevice camera) {
             mCallback.onCameraClosed();
+            if (!isCurrentBackgroundThread()) {
+                // This was the last event for the background thread of a stopped camera.
+                Looper.myLooper().quitSafely();
+            }
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice camera) {
-            mCamera = null;
+            // The camera may have been unplugged.
+            mCameraInfoCache.invalidate(camera.getId());
+            if (isCurrentBackgroundThread()) {
+                mOpening = false;
+            }
+            if (mCamera == camera) {
+                mCamera = null;
+            }
+            camera.close();
         }
 
         @Override
         public void onError(@NonNull CameraDevice camera, int error) {
             Log.e(TAG, "onError: " + camera.getId() + " (" + error + ")");
-            mCamera = null;
+            if (isCurrentBackgroundThread()) {
+                mOpening = false;
+            }
+            if (mCamera == camera) {
+                mCamera = null;
+            }
+            camera.close();
         }
 
     };
@@ -102,20 +162,37 @@ class Camera2 extends CameraViewImpl {
                 return;
             }
             mCaptureSession = session;
+            markStartup(StartupTimeline.EVENT_CONFIGURED);
+            closeRetiredReaders();
             updateAutoFocus();
-            updateFlash();
             try {
-                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                mCaptureSession.setRepeatingRequest(
+                        getPreviewRequest(CaptureRequestCache.PREVIEW),
+                        mCaptureCallback, mBackgroundHandler);
+                markStartup(StartupTimeline.EVENT_PREVIEW_STARTED);
             } catch (CameraAccessException e) {
                 Log.e(TAG, "Failed to start camera preview because it couldn't access camera", e);
             } catch (IllegalStateException e) {
                 Log.e(TAG, "Failed to start camera preview.", e);
+                return;
+            }
+            final int pendingBurst = mPendingBurst;
+            if (pendingBurst > 0) {
+                mPendingBurst = 0;
+                startBurst(pendingBurst, mTimeline);
             }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            closeRetiredReaders();
+            if (mZslReader != null && mZslSupported) {
+                // The device cannot stream the full resolution frames along with the others.
+                Log.w(TAG, "Zero shutter lag is not supported with this configuration.");
+                mZslSupported = false;
+                startCaptureSession();
+                return;
+            }
             Log.e(TAG, "Failed to configure capture session.");
         }
 
@@ -130,15 +207,42 @@ class Camera2 extends CameraViewImpl {
 
     PictureCaptureCallback mCaptureCallback = new PictureCaptureCallback() {
 
+        @Override
+        void setState(int state) {
+            super.setState(state);
+            final CaptureTimeline timeline = mTimeline;
+            if (timeline == null) {
+                return;
+            }
+            switch (state) {
+                case STATE_LOCKING:
+                    timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKING);
+                    break;
+                case STATE_LOCKED:
+                    timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKED);
+                    break;
+                case STATE_PRECAPTURE:
+                    timeline.mark(CaptureTimeline.EVENT_PRECAPTURE);
+                    break;
+                case STATE_WAITING:
+                    timeline.mark(CaptureTimeline.EVENT_WAITING);
+                    break;
+                case STATE_CAPTURING:
+                    if (timeline.hasEvent(CaptureTimeline.EVENT_FOCUS_LOCKING)) {
+                        // Straight from locking when the exposure is already converged.
+                        timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKED);
+                    }
+                    timeline.mark(CaptureTimeline.EVENT_CAPTURING);
+                    break;
+            }
+        }
+
         @Override
         public void onPrecaptureRequired() {
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
-                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
             setState(STATE_PRECAPTURE);
             try {
-                mCaptureSession.capture(mPreviewRequestBuilder.build(), this, null);
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
-                        CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+                mCaptureSession.capture(getPreviewRequest(CaptureRequestCache.PRECAPTURE), this,
+                        mBackgroundHandler);
             } catch (CameraAccessException e) {
                 Log.e(TAG, "Failed to run precapture sequence.", e);
             }
@@ -149,6 +253,32 @@ class Camera2 extends CameraViewImpl {
             captureStillPicture();
         }
 
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            mLastFrameTimestamp = timestamp;
+            // This is the SENSOR_TIMESTAMP of the result, without boxing it.
+            mFrameRateTracker.onFrame(timestamp);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            onPreviewFrame();
+            final Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
+            mLastAfState = af == null ? UNKNOWN_STATE : af;
+            final Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
+            mLastAeState = ae == null ? UNKNOWN_STATE : ae;
+            if (!mFrameRateTracker.hasTargetFrameRate()) {
+                // The range is chosen by the auto-exposure; read it once per session.
+                final Range<Integer> range = result.get(CaptureResult.CONTROL_AE_TARGET_FPS_RANGE);
+                if (range != null) {
+                    mFrameRateTracker.setTargetFrameRate(range.getLower(), range.getUpper());
+                }
+            }
+            super.onCaptureCompleted(session, request, result);
+        }
+
     };
 
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
@@ -156,74 +286,407 @@ class Camera2 extends CameraViewImpl {
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            try (Image image = reader.acquireNextImage()) {
-                Image.Plane[] planes = image.getPlanes();
-                if (planes.length > 0) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
-                    mCallback.onPictureTaken(data);
-                }
+            final Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            // Retried shots arrive out of order, so images are matched with their shots by the
+            // sensor timestamp that onCaptureStarted reported.
+            final long timestamp = image.getTimestamp();
+            final CaptureTimeline shot = mStartedShots.get(timestamp);
+            if (shot == null) {
+                // The start of its capture has not been reported yet.
+                mUnmatchedImages.put(timestamp, image);
+                return;
+            }
+            mStartedShots.remove(timestamp);
+            deliverPicture(image, shot);
+        }
+
+    };
+
+    private final ImageReader.OnImageAvailableListener mOnFrameAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // The reader is being replaced with one that has room for a larger queue.
+                Log.w(TAG, "Frame dropped: " + e.getMessage());
+                return;
             }
+            if (image != null) {
+                mImageDispatcher.offer(image);
+            }
+        }
+
+    };
+
+    private final FrameDispatcher<Image> mImageDispatcher
+            = new FrameDispatcher<Image>("CameraFrames") {
+
+        @Override
+        void onDeliver(Image image) {
+            final FrameAnalyzer analyzer = mFrameAnalyzer;
+            if (analyzer == null) {
+                return;
+            }
+            mFrame.set(image.getFormat(), image.getWidth(), image.getHeight(),
+                    image.getTimestamp(), calcFrameRotation());
+            for (Image.Plane plane : image.getPlanes()) {
+                mFrame.addPlane(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+            }
+            analyzer.analyze(mFrame);
+            mFrame.clear();
+        }
+
+        @Override
+        void onRelease(Image image) {
+            image.close();
+        }
+
+    };
+
+    private final ImageReader.OnImageAvailableListener mOnZslImageAvailableListener
+            = new ImageReader.OnImageAvailableListener() {
+
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            final Image image;
+            try {
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // All the images are in the ring or being encoded.
+                Log.w(TAG, "Zero shutter lag frame dropped: " + e.getMessage());
+                return;
+            }
+            if (image == null) {
+                return;
+            }
+            if (reader != mZslReader) {
+                // A retired reader that the previous session still streams into.
+                image.close();
+                return;
+            }
+            mZslRing.add(image, image.getTimestamp());
+            if (mZslShutterTimestamp != NO_SHUTTER &&
+                    image.getTimestamp() >= mZslShutterTimestamp) {
+                takeZslFrame(mZslShutterTimestamp, mZslTimeline);
+            }
+        }
+
+    };
+
+    private final ZslRingBuffer<Image> mZslRing = new ZslRingBuffer<Image>(1) {
+
+        @Override
+        void onRelease(Image image) {
+            image.close();
         }
 
     };
 
+    /**
+     * Recycles the NV21 copies of the zero shutter lag frames and the JPEG data encoded from
+     * them. It is sized in {@link #prepareZslReader(Size)} for the current frame size.
+     */
+    private final BufferPool mZslPool = new BufferPool(0);
 
-    private String mCameraId;
+    private volatile String mCameraId;
 
-    private CameraCharacteristics mCameraCharacteristics;
+    /**
+     * The cached information about {@link #mCameraId}.
+     */
+    private volatile CameraInfoCache.Entry mCameraInfo;
 
-    CameraDevice mCamera;
+    /**
+     * The camera device. This and the other fields of the device and its capture session, the
+     * readers, and the state of the capture, are only accessed on {@link #mBackgroundThread}.
+     * The public entry points post their work there with {@link #runOnCameraThread(Runnable)}.
+     */
+    volatile CameraDevice mCamera;
 
     CameraCaptureSession mCaptureSession;
 
-    CaptureRequest.Builder mPreviewRequestBuilder;
+    /**
+     * The requests of {@link #mCaptureSession}, or of the session being configured.
+     */
+    private volatile CaptureRequestCache mRequests;
 
     private ImageReader mImageReader;
 
-    private final SizeMap mPreviewSizes = new SizeMap();
+    /**
+     * The picture reader of the previous aspect ratio, kept so that switching back to it does not
+     * allocate a new one.
+     */
+    private ImageReader mSpareImageReader;
+
+    /**
+     * Readers that have been replaced while the current capture session may still stream into
+     * them. They are closed once the next session is configured.
+     */
+    private final ArrayList<ImageReader> mRetiredReaders = new ArrayList<>();
+
+    /**
+     * The largest burst requested so far. {@link #mImageReader} is sized so that the pictures of a
+     * whole burst can be held at the same time.
+     */
+    private int mMaxBurstCount = 1;
+
+    /**
+     * The number of pictures to take once the focus is locked.
+     */
+    private int mBurstCount = 1;
+
+    /**
+     * A burst that waits for the capture session to be reconfigured with a larger
+     * {@link #mImageReader}.
+     */
+    private volatile int mPendingBurst;
+
+    /**
+     * The latest autofocus and auto-exposure states reported by the camera, or
+     * {@link #UNKNOWN_STATE}.
+     */
+    private volatile int mLastAfState = UNKNOWN_STATE;
+
+    private volatile int mLastAeState = UNKNOWN_STATE;
+
+    /**
+     * The timeline of the latest picture or burst, which the capture steps are recorded into.
+     */
+    private volatile CaptureTimeline mTimeline;
+
+    /**
+     * {@code true} if the device failed to capture still pictures while the preview was running,
+     * so that the preview has to be stopped for each capture. This is read from
+     * {@link #mCameraInfo} when the camera is opened.
+     */
+    private boolean mStopPreviewForCapture;
+
+    /**
+     * The shots whose captures have started but whose images have not arrived yet, by sensor
+     * timestamp. This is only accessed on {@link #mBackgroundThread}.
+     */
+    private final LongSparseArray<CaptureTimeline> mStartedShots = new LongSparseArray<>();
+
+    /**
+     * The images that arrived before the start of their captures was reported, by sensor
+     * timestamp. This is only accessed on {@link #mBackgroundThread}.
+     */
+    private final LongSparseArray<Image> mUnmatchedImages = new LongSparseArray<>();
+
+    /**
+     * Streams preview frames to {@link #mFrameAnalyzer}. This is only used when there is an
+     * analyzer.
+     */
+    private ImageReader mFrameReader;
+
+    /**
+     * The thread that acquires images from {@link #mFrameReader} and queues them in
+     * {@link #mImageDispatcher}. With {@link Constants#BACKPRESSURE_BLOCK}, this is the thread
+     * that waits for the analyzer, so that camera callbacks are never blocked.
+     */
+    private HandlerThread mFrameThread;
+
+    private Handler mFrameHandler;
+
+    /**
+     * Streams full resolution frames into {@link #mZslRing} while zero shutter lag is active.
+     */
+    private volatile ImageReader mZslReader;
+
+    /**
+     * The thread that encodes the frames taken from {@link #mZslRing}.
+     */
+    private HandlerThread mZslThread;
+
+    private Handler mZslHandler;
+
+    /**
+     * The YUV output sizes, for {@link #mZslReader}.
+     */
+    private volatile SizeMap mZslSizes = new SizeMap();
+
+    /**
+     * {@code false} if the camera cannot stream full resolution frames for zero shutter lag.
+     */
+    private boolean mZslSupported;
+
+    private volatile int mZslDepth;
+
+    private volatile long mZslMaxMemory;
 
-    private final SizeMap mPictureSizes = new SizeMap();
+    /**
+     * The start of exposure of the latest preview frame, in the sensor time base.
+     */
+    private volatile long mLastFrameTimestamp = NO_SHUTTER;
+
+    /**
+     * The shutter timestamp of a zero shutter lag picture that waits for its frame to arrive, or
+     * {@link #NO_SHUTTER}. This is only accessed on {@link #mBackgroundThread}.
+     */
+    private long mZslShutterTimestamp = NO_SHUTTER;
+
+    /**
+     * The timeline of the zero shutter lag picture that waits for its frame to arrive. This is
+     * only accessed on {@link #mBackgroundThread}.
+     */
+    private CaptureTimeline mZslTimeline;
+
+    /**
+     * The thread on which all the camera device, session and capture callbacks run. Only the
+     * events to {@link #mCallback} leave this thread, and {@link CameraView} takes care of posting
+     * them to the main thread.
+     */
+    private HandlerThread mBackgroundThread;
+
+    /**
+     * A {@link Handler} for {@link #mBackgroundThread}.
+     */
+    volatile Handler mBackgroundHandler;
+
+    /**
+     * {@code true} while {@link CameraManager#openCamera} has not reported back yet. This is only
+     * accessed on {@link #mBackgroundThread}.
+     */
+    private boolean mOpening;
+
+    /**
+     * Counted down once the thread detached by the latest {@link #stop()} has released the
+     * camera. The next thread waits for it before opening a camera.
+     */
+    private CountDownLatch mReleased;
+
+    /**
+     * The size tables are shared through {@link CameraInfoCache}, and must not be modified.
+     * These and the other settings below are written on the caller's thread, and read on
+     * {@link #mBackgroundThread}.
+     */
+    private volatile SizeMap mPreviewSizes = new SizeMap();
+
+    private volatile SizeMap mPictureSizes = new SizeMap();
 
-    private int mFacing;
+    private volatile int mFacing;
 
-    private AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
+    private volatile AspectRatio mAspectRatio = Constants.DEFAULT_ASPECT_RATIO;
 
-    private boolean mAutoFocus;
+    private volatile boolean mAutoFocus;
 
-    private int mFlash;
+    private volatile int mFlash;
 
-    private int mDisplayOrientation;
+    private volatile int mDisplayOrientation;
+
+    private volatile int mSensorOrientation;
+
+    /**
+     * The focus modes of the camera, as {@code FOCUS_} flags of {@link CameraCapabilities}.
+     */
+    private volatile int mFocusModes;
 
     Camera2(Callback callback, PreviewImpl preview, Context context) {
         super(callback, preview);
         mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraInfoCache = CameraInfoCache.getInstance(context, preview.getOutputClass());
+        mFrameDispatcher = mImageDispatcher;
         mPreview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
-                startCaptureSession();
+                postStartCaptureSession();
+            }
+
+            @Override
+            public void onFrame(long timestamp) {
+                // The frames are measured at the sensor, in mCaptureCallback.
             }
         });
     }
 
     @Override
     boolean start() {
+        mStartupTimeline = StartupTimeline.start();
         if (!chooseCameraIdByFacing()) {
             return false;
         }
+        markStartup(StartupTimeline.EVENT_CAMERA_CHOSEN);
         collectCameraInfo();
-        prepareImageReader();
-        startOpeningCamera();
+        mFrameRateTracker.reset();
+        startBackgroundThread();
+        final CountDownLatch previous = mReleased;
+        mReleased = null;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (previous != null) {
+                    awaitUninterruptibly(previous);
+                }
+                if (mFrameAnalyzer != null) {
+                    startFrameThread();
+                }
+                if (mZslDepth > 0) {
+                    startZslThread();
+                }
+                resetDeviceState();
+                prepareImageReader();
+                startOpeningCamera();
+            }
+        });
         return true;
     }
 
+    /**
+     * Releases the camera on {@link #mBackgroundThread} and returns right away.
+     */
     @Override
     void stop() {
+        final Handler handler = mBackgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        final CountDownLatch released = new CountDownLatch(1);
+        mReleased = released;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseCamera();
+                } finally {
+                    released.countDown();
+                }
+            }
+        });
+        stopBackgroundThread();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the capture session, the camera device and all the readers. This runs on the thread
+     * that is being stopped, as its last task; the thread quits once the device is closed.
+     */
+    void releaseCamera() {
         if (mCaptureSession != null) {
             mCaptureSession.close();
             mCaptureSession = null;
         }
+        mRequests = null;
+        final boolean waitForClose = mCamera != null || mOpening;
         if (mCamera != null) {
             mCamera.close();
             mCamera = null;
@@ -232,6 +695,24 @@ class Camera2 extends CameraViewImpl {
             mImageReader.close();
             mImageReader = null;
         }
+        if (mSpareImageReader != null) {
+            mSpareImageReader.close();
+            mSpareImageReader = null;
+        }
+        closeRetiredReaders();
+        mPendingBurst = 0;
+        clearPendingShots();
+        mImageDispatcher.stop();
+        if (mFrameReader != null) {
+            mFrameReader.close();
+            mFrameReader = null;
+        }
+        closeZslReader();
+        stopFrameThread();
+        stopZslThread();
+        if (!waitForClose) {
+            Looper.myLooper().quitSafely();
+        }
     }
 
     @Override
@@ -239,16 +720,68 @@ class Camera2 extends CameraViewImpl {
         return mCamera != null;
     }
 
+    /**
+     * Runs {@code runnable} on {@link #mBackgroundThread}, if the camera is started.
+     */
+    private void runOnCameraThread(Runnable runnable) {
+        final Handler handler = mBackgroundHandler;
+        if (handler != null) {
+            handler.post(runnable);
+        }
+    }
+
     @Override
     void setFacing(int facing) {
         if (mFacing == facing) {
             return;
         }
         mFacing = facing;
-        if (isCameraOpened()) {
+        if (mBackgroundHandler != null) {
+            switchCamera();
+        }
+    }
+
+    /**
+     * <p>Closes the current camera device and opens the one of {@link #mFacing}.</p>
+     * <p>The background thread, the preview surface and the readers whose sizes do not change
+     * are kept. The new device is opened right after the old one is told to close, without
+     * waiting for it to be fully closed.</p>
+     */
+    private void switchCamera() {
+        final StartupTimeline timeline = StartupTimeline.start();
+        final String previousId = mCameraId;
+        final CameraInfoCache.Entry previousInfo = mCameraInfo;
+        if (!chooseCameraIdByFacing()) {
+            // The new camera has to be used with Camera1.
+            setCameraInfo(previousId, previousInfo);
             stop();
             start();
+            return;
+        }
+        if (mCameraId.equals(previousId)) { // The only camera
+            return;
         }
+        mStartupTimeline = timeline;
+        markStartup(StartupTimeline.EVENT_CAMERA_CHOSEN);
+        collectCameraInfo();
+        mFrameRateTracker.reset();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                mCaptureSession = null;
+                mRequests = null;
+                if (mCamera != null) {
+                    mCamera.close();
+                    mCamera = null;
+                }
+                mPendingBurst = 0;
+                clearPendingShots();
+                closeZslReader();
+                resetDeviceState();
+                prepareImageReader();
+                startOpeningCamera();
+            }
+        });
     }
 
     @Override
@@ -269,37 +802,59 @@ class Camera2 extends CameraViewImpl {
             return false;
         }
         mAspectRatio = ratio;
-        prepareImageReader();
-        if (mCaptureSession != null) {
-            mCaptureSession.close();
-            mCaptureSession = null;
-            startCaptureSession();
-        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                prepareImageReader();
+                if (mCaptureSession != null) {
+                    restartCaptureSession();
+                }
+            }
+        });
         return true;
     }
 
     @Override
-    AspectRatio getAspectRatio() {
-        return mAspectRatio;
-    }
-
+    void onSizeSelectorChanged() {
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession != null) {
+                    restartCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    AspectRatio getAspectRatio() {
+        return mAspectRatio;
+    }
+
     @Override
-    void setAutoFocus(boolean autoFocus) {
+    void setAutoFocus(final boolean autoFocus) {
         if (mAutoFocus == autoFocus) {
             return;
         }
         mAutoFocus = autoFocus;
-        if (mPreviewRequestBuilder != null) {
-            updateAutoFocus();
-            if (mCaptureSession != null) {
-                try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
-                } catch (CameraAccessException e) {
-                    mAutoFocus = !mAutoFocus; // Revert
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequests == null) {
+                    return;
+                }
+                updateAutoFocus();
+                if (mCaptureSession != null) {
+                    try {
+                        mCaptureSession.setRepeatingRequest(
+                                getPreviewRequest(CaptureRequestCache.PREVIEW),
+                                mCaptureCallback, mBackgroundHandler);
+                    } catch (CameraAccessException e) {
+                        mAutoFocus = !autoFocus; // Revert
+                    }
                 }
             }
-        }
+        });
     }
 
     @Override
@@ -312,19 +867,22 @@ class Camera2 extends CameraViewImpl {
         if (mFlash == flash) {
             return;
         }
-        int saved = mFlash;
+        final int saved = mFlash;
         mFlash = flash;
-        if (mPreviewRequestBuilder != null) {
-            updateFlash();
-            if (mCaptureSession != null) {
-                try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
-                } catch (CameraAccessException e) {
-                    mFlash = saved; // Revert
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mRequests != null && mCaptureSession != null) {
+                    try {
+                        mCaptureSession.setRepeatingRequest(
+                                getPreviewRequest(CaptureRequestCache.PREVIEW),
+                                mCaptureCallback, mBackgroundHandler);
+                    } catch (CameraAccessException e) {
+                        mFlash = saved; // Revert
+                    }
                 }
             }
-        }
+        });
     }
 
     @Override
@@ -334,13 +892,278 @@ class Camera2 extends CameraViewImpl {
 
     @Override
     void takePicture() {
-        if (mAutoFocus) {
+        takeBurst(1, null);
+    }
+
+    @Override
+    void takeBurst(final int count, PictureSaver.Destination destination) {
+        final CaptureTimeline timeline = CaptureTimeline.start(destination);
+        // The frame that is being exposed now, in case the picture is taken from the ring.
+        final long shutterTimestamp = mLastFrameTimestamp;
+        final long shutterTime = System.nanoTime();
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mCamera == null) {
+                    // Not opened yet, or already closed.
+                    return;
+                }
+                if (count == 1 && mZslReader != null &&
+                        (mFlash == Constants.FLASH_OFF || mFlash == Constants.FLASH_TORCH)) {
+                    // The frames in the ring are taken without flash, so only use them when no
+                    // flash would fire.
+                    timeline.mark(CaptureTimeline.EVENT_SHUTTER, shutterTime);
+                    takeZslPicture(shutterTimestamp, timeline);
+                    return;
+                }
+                startBurst(count, timeline);
+            }
+        });
+    }
+
+    /**
+     * Starts capturing {@code count} pictures. This runs on {@link #mBackgroundThread}.
+     */
+    private void startBurst(int count, CaptureTimeline timeline) {
+        mTimeline = timeline;
+        if (count > mImageReader.getMaxImages()) {
+            // The pictures of a burst can all be held at the same time, so the reader needs room
+            // for every one of them. The burst starts once the session is reconfigured.
+            mMaxBurstCount = count;
+            mPendingBurst = count;
+            prepareImageReader();
+            if (mCaptureSession != null) {
+                restartCaptureSession();
+            }
+            return;
+        }
+        mBurstCount = count;
+        if (mAutoFocus && !isConverged()) {
             lockFocus();
         } else {
             captureStillPicture();
         }
     }
 
+    /**
+     * @return {@code true} if the continuous autofocus and the auto-exposure have already settled,
+     * so that a picture can be captured without locking them first. The flash always needs the
+     * precapture sequence to meter.
+     */
+    private boolean isConverged() {
+        final int af = mLastAfState;
+        final int ae = mLastAeState;
+        return (af == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED ||
+                af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED) &&
+                (ae == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                        ae == CaptureResult.CONTROL_AE_STATE_LOCKED) &&
+                mFlash != Constants.FLASH_ON;
+    }
+
+    /**
+     * Takes the frame of {@code shutterTimestamp} out of {@link #mZslRing}, waiting for it to
+     * arrive if necessary.
+     */
+    private void takeZslPicture(long shutterTimestamp, CaptureTimeline timeline) {
+        if (mZslShutterTimestamp != NO_SHUTTER) {
+            // Do not let an earlier shot wait any longer.
+            takeZslFrame(mZslShutterTimestamp, mZslTimeline);
+        }
+        if (mZslRing.getNewestTimestamp() >= shutterTimestamp) {
+            takeZslFrame(shutterTimestamp, timeline);
+        } else {
+            mZslShutterTimestamp = shutterTimestamp;
+            mZslTimeline = timeline;
+        }
+    }
+
+    /**
+     * Takes the frame closest to {@code shutterTimestamp} and encodes it on {@link #mZslThread}.
+     */
+    void takeZslFrame(long shutterTimestamp, final CaptureTimeline timeline) {
+        mZslShutterTimestamp = NO_SHUTTER;
+        mZslTimeline = null;
+        final Image image = mZslRing.take(shutterTimestamp);
+        if (image == null) {
+            return;
+        }
+        timeline.mark(CaptureTimeline.EVENT_CAPTURING);
+        final int rotation = calcFrameRotation();
+        final BufferPool pool = mZslPool;
+        mZslHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int width = image.getWidth();
+                final int height = image.getHeight();
+                final byte[] nv21 = pool.acquire(width * height * 3 / 2);
+                try {
+                    toNv21(image, nv21);
+                } catch (IllegalStateException e) {
+                    // The camera was closed in the meantime.
+                    pool.release(nv21);
+                    return;
+                } finally {
+                    image.close();
+                }
+                // Room is left in front of the JPEG data for the EXIF segment, so that the
+                // orientation is added without another copy.
+                final PooledOutputStream out = new PooledOutputStream(pool,
+                        estimateZslJpegSize(width, height), Exif.ORIENTATION_SEGMENT_SIZE);
+                new YuvImage(nv21, ImageFormat.NV21, width, height, null)
+                        .compressToJpeg(new Rect(0, 0, width, height), ZSL_JPEG_QUALITY, out);
+                pool.release(nv21);
+                final byte[] data = out.getBuffer();
+                Exif.insertOrientation(data, rotation);
+                timeline.mark(CaptureTimeline.EVENT_IMAGE_AVAILABLE);
+                mCallback.onPictureTaken(new Picture(ByteBuffer.wrap(data, 0, out.getCount())) {
+                    @Override
+                    void onRelease() {
+                        pool.release(data);
+                    }
+                }.setTimeline(timeline).setRotation(rotation));
+            }
+        });
+    }
+
+    /**
+     * Hands the JPEG image of {@code shot} over to {@link #mCallback}.
+     */
+    void deliverPicture(final Image image, CaptureTimeline shot) {
+        shot.mark(CaptureTimeline.EVENT_IMAGE_AVAILABLE);
+        Image.Plane[] planes = image.getPlanes();
+        if (planes.length == 0) {
+            image.close();
+            return;
+        }
+        // JPEG_ORIENTATION may only be applied as an EXIF tag, or applied twice; the tag is
+        // fixed in place so that the picture never has to be re-encoded.
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (mBufferPool != null && mBufferPool.getMaxSize() > 0) {
+            // Copy into a recycled array so that the image can go back to the reader now.
+            final BufferPool pool = mBufferPool;
+            ByteBuffer buffer = planes[0].getBuffer();
+            final int size = buffer.remaining();
+            final byte[] data = pool.acquire(size);
+            buffer.get(data, 0, size);
+            image.close();
+            final ByteBuffer jpeg = ByteBuffer.wrap(data, 0, size);
+            final int rotation = Exif.normalizeOrientation(jpeg, width, height);
+            mCallback.onPictureTaken(new Picture(jpeg) {
+                @Override
+                void onRelease() {
+                    pool.release(data);
+                }
+            }.setTimeline(shot).setRotation(rotation));
+        } else {
+            // The picture keeps the image, and closes it when it is released.
+            final ByteBuffer jpeg = planes[0].getBuffer();
+            final int rotation = Exif.normalizeOrientation(jpeg, width, height);
+            mCallback.onPictureTaken(new Picture(jpeg) {
+                @Override
+                void onRelease() {
+                    image.close();
+                }
+            }.setTimeline(shot).setRotation(rotation));
+        }
+    }
+
+    /**
+     * Copies a {@link ImageFormat#YUV_420_888} image into an NV21 array.
+     */
+    private static void toNv21(Image image, byte[] nv21) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Image.Plane[] planes = image.getPlanes();
+        final ByteBuffer y = planes[0].getBuffer();
+        final int yRowStride = planes[0].getRowStride();
+        for (int row = 0; row < height; row++) {
+            y.position(row * yRowStride);
+            y.get(nv21, row * width, width);
+        }
+        final ByteBuffer u = planes[1].getBuffer();
+        final ByteBuffer v = planes[2].getBuffer();
+        final int uvRowStride = planes[1].getRowStride();
+        final int uvPixelStride = planes[1].getPixelStride();
+        int p = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                final int index = row * uvRowStride + col * uvPixelStride;
+                nv21[p++] = v.get(index);
+                nv21[p++] = u.get(index);
+            }
+        }
+    }
+
+    @Override
+    void setZeroShutterLag(final int depth, long maxMemory) {
+        final boolean changed = depth != mZslDepth || maxMemory != mZslMaxMemory;
+        mZslDepth = depth;
+        mZslMaxMemory = maxMemory;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (depth > 0) {
+                    startZslThread();
+                }
+                if (changed && mCaptureSession != null) {
+                    restartCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    boolean isZeroShutterLagActive() {
+        return mZslReader != null;
+    }
+
+    @Override
+    void setFrameAnalyzer(final FrameAnalyzer analyzer) {
+        final boolean outputsChanged = (mFrameAnalyzer == null) != (analyzer == null);
+        mFrameAnalyzer = analyzer;
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                if (analyzer != null) {
+                    startFrameThread();
+                }
+                if (outputsChanged && mCaptureSession != null) {
+                    restartCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    void setFrameBackpressure(final int strategy, final int capacity) {
+        if (mBackgroundHandler == null) {
+            restartFrameDispatcher(strategy, capacity);
+            return;
+        }
+        runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                restartFrameDispatcher(strategy, capacity);
+                if (mFrameReader != null &&
+                        mFrameReader.getMaxImages() != getFrameReaderMaxImages() &&
+                        mCaptureSession != null) {
+                    restartCaptureSession();
+                }
+            }
+        });
+    }
+
+    /**
+     * <p>Starts a new capture session with the current outputs.</p>
+     * <p>The current session is not closed first. Creating the new session replaces it, and the
+     * camera keeps the outputs that have not changed configured instead of tearing them down.</p>
+     */
+    private void restartCaptureSession() {
+        mCaptureSession = null;
+        postStartCaptureSession();
+    }
+
     @Override
     void setDisplayOrientation(int displayOrientation) {
         mDisplayOrientation = displayOrientation;
@@ -349,49 +1172,33 @@ class Camera2 extends CameraViewImpl {
 
     /**
      * <p>Chooses a camera ID by the specified camera facing ({@link #mFacing}).</p>
-     * <p>This rewrites {@link #mCameraId}, {@link #mCameraCharacteristics}, and optionally
+     * <p>This rewrites {@link #mCameraId}, {@link #mCameraInfo}, and optionally
      * {@link #mFacing}.</p>
      */
     private boolean chooseCameraIdByFacing() {
+        TraceCompat.beginSection("CameraView:chooseCameraId");
         try {
             int internalFacing = INTERNAL_FACINGS.get(mFacing);
-            final String[] ids = mCameraManager.getCameraIdList();
+            final String[] ids = mCameraInfoCache.getCameraIdList();
             if (ids.length == 0) { // No camera
                 throw new RuntimeException("No camera available.");
             }
-            for (String id : ids) {
-                CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
-                Integer level = characteristics.get(
-                        CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-                if (level == null ||
-                        level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
-                    continue;
-                }
-                Integer internal = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (internal == null) {
-                    throw new NullPointerException("Unexpected state: LENS_FACING null");
-                }
-                if (internal == internalFacing) {
-                    mCameraId = id;
-                    mCameraCharacteristics = characteristics;
-                    return true;
-                }
+            final String id = mCameraInfoCache.getCameraIdByFacing(internalFacing);
+            if (id != null) {
+                setCameraInfo(id, mCameraInfoCache.getEntry(id));
+                return true;
             }
             // Not found
-            mCameraId = ids[0];
-            mCameraCharacteristics = mCameraManager.getCameraCharacteristics(mCameraId);
-            Integer level = mCameraCharacteristics.get(
-                    CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
-            if (level == null ||
-                    level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+            setCameraInfo(ids[0], mCameraInfoCache.getEntry(ids[0]));
+            if (mCameraInfo.isLegacy()) {
                 return false;
             }
-            Integer internal = mCameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-            if (internal == null) {
+            final int lensFacing = mCameraInfo.getLensFacing();
+            if (lensFacing == -1) {
                 throw new NullPointerException("Unexpected state: LENS_FACING null");
             }
             for (int i = 0, count = INTERNAL_FACINGS.size(); i < count; i++) {
-                if (INTERNAL_FACINGS.valueAt(i) == internal) {
+                if (INTERNAL_FACINGS.valueAt(i) == lensFacing) {
                     mFacing = INTERNAL_FACINGS.keyAt(i);
                     return true;
                 }
@@ -402,55 +1209,354 @@ class Camera2 extends CameraViewImpl {
             return true;
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to get a list of camera devices", e);
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
+    private void setCameraInfo(String cameraId, CameraInfoCache.Entry info) {
+        mCameraId = cameraId;
+        mCameraInfo = info;
+    }
+
     /**
-     * <p>Collects some information from {@link #mCameraCharacteristics}.</p>
-     * <p>This rewrites {@link #mPreviewSizes}, {@link #mPictureSizes}, and optionally,
-     * {@link #mAspectRatio}.</p>
+     * <p>Collects some information from {@link #mCameraInfo}.</p>
+     * <p>This rewrites {@link #mPreviewSizes}, {@link #mPictureSizes}, {@link #mZslSizes}, and
+     * optionally, {@link #mAspectRatio}. The size tables are built once per camera, and kept
+     * across launches by {@link CameraInfoCache}.</p>
      */
     private void collectCameraInfo() {
-        StreamConfigurationMap map = mCameraCharacteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        TraceCompat.beginSection("CameraView:collectCameraInfo");
+        CameraCapabilities capabilities;
+        try {
+            capabilities = mCameraInfo.getCapabilities();
+            if (!capabilities.hasSizes()) {
+                buildSizeTables();
+                capabilities = mCameraInfo.getCapabilities();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        markStartup(StartupTimeline.EVENT_CHARACTERISTICS_READ);
+        mPreviewSizes = capabilities.previewSizes;
+        mPictureSizes = capabilities.pictureSizes;
+        mZslSizes = capabilities.yuvSizes;
+
+        if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
+            mAspectRatio = mPreviewSizes.ratios().iterator().next();
+        }
+        mSensorOrientation = capabilities.sensorOrientation;
+        mFocusModes = capabilities.focusModes;
+    }
+
+    /**
+     * Resets what is learned about the camera device while it runs, before opening the one of
+     * {@link #mCameraInfo}. This runs on {@link #mBackgroundThread}.
+     */
+    private void resetDeviceState() {
+        final int level = mCameraInfo.getCapabilities().hardwareLevel;
+        mZslSupported = level != -1 &&
+                level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY &&
+                level != CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED;
+        mStopPreviewForCapture = mCameraInfo.stopsPreviewForCapture();
+    }
+
+    /**
+     * Forgets the shots that are waiting for their images, and closes the images that are
+     * waiting for their shots.
+     */
+    private void clearPendingShots() {
+        mStartedShots.clear();
+        for (int i = 0, count = mUnmatchedImages.size(); i < count; i++) {
+            mUnmatchedImages.valueAt(i).close();
+        }
+        mUnmatchedImages.clear();
+    }
+
+    /**
+     * Records that the capture of {@code shot} started at {@code timestamp}, and delivers its
+     * image if it has already arrived.
+     */
+    void onShotStarted(long timestamp, CaptureTimeline shot) {
+        final Image image = mUnmatchedImages.get(timestamp);
+        if (image == null) {
+            mStartedShots.put(timestamp, shot);
+            return;
+        }
+        mUnmatchedImages.remove(timestamp);
+        deliverPicture(image, shot);
+    }
+
+    /**
+     * Builds the size tables of {@link #mCameraInfo}. The preview output class is always the same
+     * for {@link Camera2}, and so is the way picture sizes are collected in a process, so the
+     * tables can be shared by all instances.
+     */
+    private void buildSizeTables() {
+        StreamConfigurationMap map;
+        try {
+            map = mCameraInfo.getCharacteristics().get(
+                    CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        } catch (CameraAccessException e) {
+            throw new RuntimeException("Failed to get the camera characteristics", e);
+        }
         if (map == null) {
             throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
         }
-        mPreviewSizes.clear();
+        final SizeMap previewSizes = new SizeMap();
         for (android.util.Size size : map.getOutputSizes(mPreview.getOutputClass())) {
             int width = size.getWidth();
             int height = size.getHeight();
             if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
-                mPreviewSizes.add(new Size(width, height));
+                previewSizes.add(new Size(width, height));
             }
         }
-        mPictureSizes.clear();
-        collectPictureSizes(mPictureSizes, map);
-        for (AspectRatio ratio : mPreviewSizes.ratios()) {
-            if (!mPictureSizes.ratios().contains(ratio)) {
-                mPreviewSizes.remove(ratio);
+        final SizeMap pictureSizes = new SizeMap();
+        collectPictureSizes(pictureSizes, map);
+        for (AspectRatio ratio : previewSizes.ratios()) {
+            if (!pictureSizes.ratios().contains(ratio)) {
+                previewSizes.remove(ratio);
             }
         }
-
-        if (!mPreviewSizes.ratios().contains(mAspectRatio)) {
-            mAspectRatio = mPreviewSizes.ratios().iterator().next();
+        final SizeMap yuvSizes = new SizeMap();
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            yuvSizes.add(size.getWidth(), size.getHeight());
         }
+        mCameraInfoCache.setSizes(mCameraInfo, previewSizes, pictureSizes, yuvSizes);
     }
 
     protected void collectPictureSizes(SizeMap sizes, StreamConfigurationMap map) {
         for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
-            mPictureSizes.add(new Size(size.getWidth(), size.getHeight()));
+            sizes.add(new Size(size.getWidth(), size.getHeight()));
         }
     }
 
+    /**
+     * Prepares {@link #mImageReader} for the picture size chosen by {@link #mPictureSizeSelector}.
+     * The reader it replaces is kept as {@link #mSpareImageReader}, and is reused if the aspect
+     * ratio is switched back.
+     */
     private void prepareImageReader() {
-        if (mImageReader != null) {
-            mImageReader.close();
+        final Size previewSize = chooseOptimalSize();
+        final Size pictureSize = mPictureSizeSelector.select(mCameraId, mPictureSizes,
+                mAspectRatio, previewSize.getWidth(), previewSize.getHeight());
+        final int maxImages = Math.max(2, mMaxBurstCount);
+        if (matches(mImageReader, pictureSize, maxImages)) {
+            return;
         }
-        Size largest = mPictureSizes.sizes(mAspectRatio).last();
-        mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                ImageFormat.JPEG, /* maxImages */ 2);
-        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+        final ImageReader previous = mImageReader;
+        if (matches(mSpareImageReader, pictureSize, maxImages)) {
+            mImageReader = mSpareImageReader;
+        } else {
+            retireReader(mSpareImageReader);
+            mImageReader = ImageReader.newInstance(pictureSize.getWidth(),
+                    pictureSize.getHeight(), ImageFormat.JPEG, maxImages);
+        }
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
+        mSpareImageReader = previous;
+    }
+
+    private static boolean matches(ImageReader reader, Size size, int maxImages) {
+        return reader != null && reader.getWidth() == size.getWidth() &&
+                reader.getHeight() == size.getHeight() && reader.getMaxImages() == maxImages;
+    }
+
+    /**
+     * Closes {@code reader} once the capture session that may use it is replaced.
+     */
+    private void retireReader(ImageReader reader) {
+        if (reader == null) {
+            return;
+        }
+        if (mCaptureSession == null && mCamera == null) {
+            reader.close();
+            return;
+        }
+        synchronized (mRetiredReaders) {
+            mRetiredReaders.add(reader);
+        }
+    }
+
+    void closeRetiredReaders() {
+        synchronized (mRetiredReaders) {
+            for (ImageReader reader : mRetiredReaders) {
+                reader.close();
+            }
+            mRetiredReaders.clear();
+        }
+    }
+
+    /**
+     * Prepares {@link #mFrameReader} for frames of the specified size, reusing the current one if
+     * the size and the queue capacity have not changed.
+     */
+    private void prepareFrameReader(Size size) {
+        final int maxImages = getFrameReaderMaxImages();
+        if (matches(mFrameReader, size, maxImages)) {
+            return;
+        }
+        retireReader(mFrameReader);
+        mFrameReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, maxImages);
+        mFrameReader.setOnImageAvailableListener(mOnFrameAvailableListener, mFrameHandler);
+    }
+
+    /**
+     * Chooses the size of the zero shutter lag frames: the largest one of the current aspect
+     * ratio whose reader fits in {@link #mZslMaxMemory}.
+     *
+     * @return The size, or {@code null} if zero shutter lag is disabled or not possible.
+     */
+    private Size chooseZslSize() {
+        if (mZslDepth <= 0 || !mZslSupported) {
+            return null;
+        }
+        final SortedSet<Size> candidates = mZslSizes.sizes(mAspectRatio);
+        if (candidates == null) {
+            return null;
+        }
+        Size chosen = null;
+        for (Size size : candidates) {
+            final long memory = (long) getZslReaderMaxImages() *
+                    size.getWidth() * size.getHeight() * 3 / 2;
+            if (memory <= mZslMaxMemory) {
+                chosen = size;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Prepares {@link #mZslReader} for frames of the specified size, reusing the current one if
+     * the size and the depth have not changed.
+     */
+    private void prepareZslReader(Size size) {
+        final int maxImages = getZslReaderMaxImages();
+        if (matches(mZslReader, size, maxImages)) {
+            return;
+        }
+        retireZslReader();
+        mZslRing.setCapacity(mZslDepth);
+        // One NV21 frame being encoded, and the JPEG data of the pictures that are not released
+        // yet, each of them at most the size of a frame.
+        mZslPool.setMaxSize(ZSL_POOLED_FRAMES *
+                (long) BufferPool.capacityFor(size.getWidth() * size.getHeight() * 3 / 2));
+        mZslReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, maxImages);
+        mZslReader.setOnImageAvailableListener(mOnZslImageAvailableListener, mBackgroundHandler);
+    }
+
+    /**
+     * The ring holds {@link #mZslDepth} images, and one more is being acquired while another one
+     * is being encoded.
+     */
+    private int getZslReaderMaxImages() {
+        return mZslDepth + 2;
+    }
+
+    private void closeZslReader() {
+        mZslRing.clear();
+        mZslShutterTimestamp = NO_SHUTTER;
+        mZslTimeline = null;
+        if (mZslReader != null) {
+            mZslReader.close();
+            mZslReader = null;
+        }
+        mZslPool.setMaxSize(0);
+    }
+
+    /**
+     * @return The initial size of the array that a zero shutter lag frame is encoded into, with
+     * the room for the EXIF segment. The array grows if the JPEG data turns out to be larger.
+     */
+    private static int estimateZslJpegSize(int width, int height) {
+        return width * height / 2 + Exif.ORIENTATION_SEGMENT_SIZE;
+    }
+
+    /**
+     * Like {@link #closeZslReader()}, but the reader is only closed once the capture session
+     * streaming into it is replaced.
+     */
+    private void retireZslReader() {
+        mZslRing.clear();
+        mZslShutterTimestamp = NO_SHUTTER;
+        mZslTimeline = null;
+        retireReader(mZslReader);
+        mZslReader = null;
+    }
+
+    /**
+     * The frame reader must hold all the queued images, the one being analyzed, and the one
+     * being acquired. Otherwise acquiring an image fails once the analyzer falls behind.
+     */
+    private int getFrameReaderMaxImages() {
+        return mImageDispatcher.getCapacity() + 2;
+    }
+
+    /**
+     * Starts {@link #mFrameThread} and {@link #mImageDispatcher} unless they are running.
+     */
+    private void startFrameThread() {
+        mImageDispatcher.start();
+        if (mFrameThread != null) {
+            return;
+        }
+        mFrameThread = new HandlerThread("CameraFrameReader");
+        mFrameThread.start();
+        mFrameHandler = new Handler(mFrameThread.getLooper());
+    }
+
+    private void stopFrameThread() {
+        if (mFrameThread == null) {
+            return;
+        }
+        mFrameThread.quitSafely();
+        mFrameThread = null;
+        mFrameHandler = null;
+    }
+
+    private void startZslThread() {
+        if (mZslThread != null) {
+            return;
+        }
+        mZslThread = new HandlerThread("CameraZslEncoder");
+        mZslThread.start();
+        mZslHandler = new Handler(mZslThread.getLooper());
+    }
+
+    private void stopZslThread() {
+        if (mZslThread == null) {
+            return;
+        }
+        mZslThread.quitSafely();
+        mZslThread = null;
+        mZslHandler = null;
+    }
+
+    /**
+     * Starts {@link #mBackgroundThread} and {@link #mBackgroundHandler}.
+     */
+    private void startBackgroundThread() {
+        mBackgroundThread = new HandlerThread("CameraBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+    }
+
+    /**
+     * Detaches {@link #mBackgroundThread}. The thread quits itself after
+     * {@link #releaseCamera()}, or once the device reports that it is closed.
+     */
+    private void stopBackgroundThread() {
+        mBackgroundThread = null;
+        mBackgroundHandler = null;
+    }
+
+    /**
+     * @return {@code true} if the caller runs on the current {@link #mBackgroundThread}.
+     */
+    boolean isCurrentBackgroundThread() {
+        final Handler handler = mBackgroundHandler;
+        return handler != null && handler.getLooper() == Looper.myLooper();
     }
 
     /**
@@ -458,16 +1564,38 @@ class Camera2 extends CameraViewImpl {
      * <p>The result will be processed in {@link #mCameraDeviceCallback}.</p>
      */
     private void startOpeningCamera() {
+        markStartup(StartupTimeline.EVENT_OPEN_REQUESTED);
+        TraceCompat.beginSection("CameraView:openCamera");
         try {
-            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, null);
+            mOpening = true;
+            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, mBackgroundHandler);
         } catch (CameraAccessException e) {
+            mOpening = false;
             throw new RuntimeException("Failed to open camera: " + mCameraId, e);
+        } finally {
+            TraceCompat.endSection();
         }
     }
 
+    /**
+     * Runs {@link #startCaptureSession()} on {@link #mBackgroundHandler}.
+     */
+    void postStartCaptureSession() {
+        final Handler handler = mBackgroundHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                startCaptureSession();
+            }
+        });
+    }
+
     /**
      * <p>Starts a capture session for camera preview.</p>
-     * <p>This rewrites {@link #mPreviewRequestBuilder}.</p>
+     * <p>This rewrites {@link #mRequests}.</p>
      * <p>The result will be continuously processed in {@link #mSessionCallback}.</p>
      */
     void startCaptureSession() {
@@ -476,19 +1604,56 @@ class Camera2 extends CameraViewImpl {
         }
         Size previewSize = chooseOptimalSize();
         mPreview.setBufferSize(previewSize.getWidth(), previewSize.getHeight());
+        // The preview stops until the new session is configured.
+        mFrameRateTracker.pause();
+        mLastAfState = UNKNOWN_STATE;
+        mLastAeState = UNKNOWN_STATE;
+        // The picture size may depend on the preview size.
+        prepareImageReader();
         Surface surface = mPreview.getSurface();
+        List<Surface> outputs = new ArrayList<>(4);
+        outputs.add(surface);
+        outputs.add(mImageReader.getSurface());
+        final Size zslSize = chooseZslSize();
         try {
-            mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(surface);
-            mCamera.createCaptureSession(Arrays.asList(surface, mImageReader.getSurface()),
-                    mSessionCallback, null);
+            final CaptureRequest.Builder previewBuilder;
+            if (zslSize != null) {
+                prepareZslReader(zslSize);
+                previewBuilder = mCamera.createCaptureRequest(
+                        CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+                previewBuilder.addTarget(mZslReader.getSurface());
+                outputs.add(mZslReader.getSurface());
+            } else {
+                retireZslReader();
+                previewBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            }
+            previewBuilder.addTarget(surface);
+            if (mFrameAnalyzer != null) {
+                prepareFrameReader(previewSize);
+                previewBuilder.addTarget(mFrameReader.getSurface());
+                outputs.add(mFrameReader.getSurface());
+            } else if (mFrameReader != null) {
+                retireReader(mFrameReader);
+                mFrameReader = null;
+            }
+            final CaptureRequest.Builder stillBuilder =
+                    mCamera.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            stillBuilder.addTarget(mImageReader.getSurface());
+            mRequests = new CaptureRequestCache(previewBuilder, stillBuilder);
+            markStartup(StartupTimeline.EVENT_CONFIGURE_REQUESTED);
+            TraceCompat.beginSection("CameraView:createCaptureSession");
+            try {
+                mCamera.createCaptureSession(outputs, mSessionCallback, mBackgroundHandler);
+            } finally {
+                TraceCompat.endSection();
+            }
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to start camera session");
         }
     }
 
     /**
-     * Chooses the optimal preview size based on {@link #mPreviewSizes} and the surface size.
+     * Chooses the preview size with {@link #mPreviewSizeSelector}, based on the surface size.
      *
      * @return The picked size for camera preview.
      */
@@ -503,168 +1668,215 @@ class Camera2 extends CameraViewImpl {
             surfaceLonger = surfaceWidth;
             surfaceShorter = surfaceHeight;
         }
-        SortedSet<Size> candidates = mPreviewSizes.sizes(mAspectRatio);
+        return mPreviewSizeSelector.select(mCameraId, mPreviewSizes, mAspectRatio,
+                surfaceLonger, surfaceShorter);
+    }
 
-        // Pick the smallest of those big enough
-        for (Size size : candidates) {
-            if (size.getWidth() >= surfaceLonger && size.getHeight() >= surfaceShorter) {
-                return size;
-            }
-        }
-        // If no size is big enough, pick the largest one.
-        return candidates.last();
+    /**
+     * @return The clockwise rotation that makes preview frames upright on the display.
+     */
+    private int calcFrameRotation() {
+        return (mSensorOrientation +
+                mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) + 360) % 360;
     }
 
     /**
-     * Updates the internal state of auto-focus to {@link #mAutoFocus}.
+     * Turns {@link #mAutoFocus} off if the camera cannot focus.
      */
     void updateAutoFocus() {
-        if (mAutoFocus) {
-            int[] modes = mCameraCharacteristics.get(
-                    CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
-            // Auto focus is not supported
-            if (modes == null || modes.length == 0 ||
-                    (modes.length == 1 && modes[0] == CameraCharacteristics.CONTROL_AF_MODE_OFF)) {
-                mAutoFocus = false;
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                        CaptureRequest.CONTROL_AF_MODE_OFF);
-            } else {
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                        CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            }
-        } else {
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    CaptureRequest.CONTROL_AF_MODE_OFF);
+        if (mAutoFocus && (mFocusModes & ~CameraCapabilities.FOCUS_FIXED) == 0) {
+            mAutoFocus = false;
         }
     }
 
     /**
-     * Updates the internal state of flash to {@link #mFlash}.
+     * @param kind One of the kinds of preview requests of {@link CaptureRequestCache}.
+     * @return The request for the current flash and autofocus modes.
      */
-    void updateFlash() {
-        switch (mFlash) {
-            case Constants.FLASH_OFF:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                        CaptureRequest.CONTROL_AE_MODE_ON);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                        CaptureRequest.FLASH_MODE_OFF);
-                break;
-            case Constants.FLASH_ON:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                        CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                        CaptureRequest.FLASH_MODE_OFF);
-                break;
-            case Constants.FLASH_TORCH:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                        CaptureRequest.CONTROL_AE_MODE_ON);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                        CaptureRequest.FLASH_MODE_TORCH);
-                break;
-            case Constants.FLASH_AUTO:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                        CaptureRequest.FLASH_MODE_OFF);
-                break;
-            case Constants.FLASH_RED_EYE:
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE);
-                mPreviewRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                        CaptureRequest.FLASH_MODE_OFF);
-                break;
-        }
+    private CaptureRequest getPreviewRequest(int kind) {
+        return mRequests.getPreviewRequest(kind, mFlash, mAutoFocus);
     }
 
     /**
      * Locks the focus as the first step for a still image capture.
      */
     private void lockFocus() {
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                CaptureRequest.CONTROL_AF_TRIGGER_START);
         try {
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            mCaptureSession.capture(getPreviewRequest(CaptureRequestCache.LOCK_FOCUS),
+                    mCaptureCallback, mBackgroundHandler);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to lock focus.", e);
         }
     }
 
     /**
-     * Captures a still picture.
+     * Captures a still picture, or a burst of {@link #mBurstCount} pictures.
      */
     void captureStillPicture() {
         try {
-            CaptureRequest.Builder captureRequestBuilder = mCamera.createCaptureRequest(
-                    CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureRequestBuilder.addTarget(mImageReader.getSurface());
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
-                    mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
-            switch (mFlash) {
-                case Constants.FLASH_OFF:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                            CaptureRequest.FLASH_MODE_OFF);
-                    break;
-                case Constants.FLASH_ON:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                    break;
-                case Constants.FLASH_TORCH:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON);
-                    captureRequestBuilder.set(CaptureRequest.FLASH_MODE,
-                            CaptureRequest.FLASH_MODE_TORCH);
-                    break;
-                case Constants.FLASH_AUTO:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
-                case Constants.FLASH_RED_EYE:
-                    captureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
-                            CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
-                    break;
+            final int orientation = (mSensorOrientation +
+                    mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
+                    360) % 360;
+            // Each request is tagged with the index of its shot so that a failed one can be
+            // retried.
+            final int count = mBurstCount;
+            final CaptureTimeline timeline = mTimeline;
+            timeline.mark(CaptureTimeline.EVENT_CAPTURING);
+            final CaptureTimeline[] shots = new CaptureTimeline[count];
+            final List<CaptureRequest> requests = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                shots[i] = timeline.forShot(i, count);
+                requests.add(mRequests.getStillRequest(mFlash, mAutoFocus, orientation, i));
             }
-            // Calculate JPEG orientation.
-            @SuppressWarnings("ConstantConditions")
-            int sensorOrientation = mCameraCharacteristics.get(
-                    CameraCharacteristics.SENSOR_ORIENTATION);
-            captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION,
-                    (sensorOrientation +
-                            mDisplayOrientation * (mFacing == Constants.FACING_FRONT ? 1 : -1) +
-                            360) % 360);
-            // Stop preview and capture a still picture.
-            mCaptureSession.stopRepeating();
-            mCaptureSession.capture(captureRequestBuilder.build(),
-                    new CameraCaptureSession.CaptureCallback() {
-                        @Override
-                        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                @NonNull CaptureRequest request,
-                                @NonNull TotalCaptureResult result) {
-                            unlockFocus();
-                        }
-                    }, null);
+            // The still pictures are captured in between the preview frames, so the preview
+            // keeps running. Only devices that failed to do so get the preview stopped.
+            if (mStopPreviewForCapture) {
+                mCaptureSession.stopRepeating();
+            }
+            new StillCaptureCallback(shots).capture(requests);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Cannot capture a still picture.", e);
         }
     }
 
     /**
-     * Unlocks the auto-focus and restart camera preview. This is supposed to be called after
-     * capturing a still picture.
+     * Follows the captures of a burst, and retries the shots that fail once.
+     */
+    private class StillCaptureCallback extends CameraCaptureSession.CaptureCallback {
+
+        private final CaptureTimeline[] mShots;
+
+        /**
+         * The start of the capture of each shot, or {@link #NO_SHUTTER}.
+         */
+        private final long[] mShutterTimestamps;
+
+        /**
+         * The requests of the current attempt that failed without an image.
+         */
+        private final ArrayList<CaptureRequest> mFailed = new ArrayList<>();
+
+        private int mOutstanding;
+
+        /**
+         * The number of requests of the current attempt that failed with
+         * {@link CaptureFailure#REASON_ERROR}.
+         */
+        private int mErrors;
+
+        private boolean mRetried;
+
+        StillCaptureCallback(CaptureTimeline[] shots) {
+            mShots = shots;
+            mShutterTimestamps = new long[shots.length];
+            Arrays.fill(mShutterTimestamps, NO_SHUTTER);
+        }
+
+        void capture(List<CaptureRequest> requests) throws CameraAccessException {
+            mOutstanding = requests.size();
+            mFailed.clear();
+            mErrors = 0;
+            mCaptureSession.captureBurst(requests, this, mBackgroundHandler);
+        }
+
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            final int index = (Integer) request.getTag();
+            mShots[index].mark(CaptureTimeline.EVENT_SHUTTER);
+            mShutterTimestamps[index] = timestamp;
+            onShotStarted(timestamp, mShots[index]);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            onShotFinished();
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            if (!failure.wasImageCaptured()) {
+                forgetShot((Integer) request.getTag());
+                mFailed.add(request);
+                if (failure.getReason() == CaptureFailure.REASON_ERROR) {
+                    mErrors++;
+                }
+            }
+            onShotFinished();
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session,
+                int sequenceId) {
+            // The session is closing; none of the shots will arrive.
+            for (int i = 0; i < mShots.length; i++) {
+                forgetShot(i);
+            }
+        }
+
+        private void forgetShot(int index) {
+            if (mShutterTimestamps[index] != NO_SHUTTER) {
+                mStartedShots.remove(mShutterTimestamps[index]);
+                mShutterTimestamps[index] = NO_SHUTTER;
+            }
+        }
+
+        private void onShotFinished() {
+            if (--mOutstanding > 0) {
+                return;
+            }
+            if (!mFailed.isEmpty()) {
+                if (!mRetried && retry()) {
+                    return;
+                }
+                Log.e(TAG, "Failed to capture " + mFailed.size() + " still pictures.");
+            }
+            unlockFocus();
+        }
+
+        /**
+         * Captures all the failed shots again. If every shot of the burst failed with an error
+         * while the preview was running, the device is taken not to capture along with the
+         * preview, and the preview is stopped from now on.
+         *
+         * @return {@code false} if the shots cannot be captured again.
+         */
+        private boolean retry() {
+            mRetried = true;
+            if (mCaptureSession == null) {
+                return false;
+            }
+            try {
+                if (!mStopPreviewForCapture && mErrors == mShots.length) {
+                    Log.w(TAG, "Still capture failed along with the preview; " +
+                            "stopping the preview for captures from now on.");
+                    mCameraInfo.setStopsPreviewForCapture();
+                    mStopPreviewForCapture = true;
+                    mCaptureSession.stopRepeating();
+                }
+                capture(new ArrayList<>(mFailed));
+                return true;
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Cannot capture a still picture.", e);
+                return false;
+            }
+        }
+
+    }
+
+    /**
+     * Unlocks the auto-focus and restores the repeating preview request. This is supposed to be
+     * called after capturing a still picture.
      */
     void unlockFocus() {
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
-            updateAutoFocus();
-            updateFlash();
-            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
-            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                    null);
+            mCaptureSession.capture(getPreviewRequest(CaptureRequestCache.UNLOCK_FOCUS),
+                    mCaptureCallback, mBackgroundHandler);
+            mCaptureSession.setRepeatingRequest(getPreviewRequest(CaptureRequestCache.PREVIEW),
+                    mCaptureCallback, mBackgroundHandler);
             mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to restart camera preview.", e);
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v4.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>A process-wide cache of the camera IDs, their {@link CameraCharacteristics}, and the tables
+ * that {@link Camera2} derives from them.</p>
+ * <p>The derived {@link CameraCapabilities} are also kept in a {@link CapabilityStore} in the
+ * app's cache directory. On a cold start, cameras are chosen and configured from the store
+ * without any query to the camera service, and the store is checked against the cameras in the
+ * background. Characteristics are only fetched when something needs them.</p>
+ * <p>The store is loaded, checked and written on a single background thread of the cache. The
+ * load starts as soon as the cache is created, so that the file is usually parsed by the time a
+ * camera is chosen.</p>
+ * <p>Characteristics of a camera ID never change, so entries are only dropped when the set of
+ * cameras changes: when {@link CameraManager.AvailabilityCallback} reports a camera that is not
+ * in the cached ID list, or when a camera device is disconnected.</p>
+ * <p>This class is thread-safe.</p>
+ */
+@TargetApi(21)
+class CameraInfoCache {
+
+    private static final String TAG = "CameraInfoCache";
+
+    private static final String STORE_FILE_NAME = "cameraview-camera2.bin";
+
+    private static CameraInfoCache sInstance;
+
+    /**
+     * @param context            Any context. Only its application context is kept.
+     * @param previewOutputClass The class whose output sizes {@link Camera2} uses as preview
+     *                           sizes. It is the same for every instance in a process, so the
+     *                           one of the first call is kept.
+     */
+    static synchronized CameraInfoCache getInstance(Context context, Class previewOutputClass) {
+        if (sInstance == null) {
+            final Context app = context.getApplicationContext();
+            final CapabilityStore store = CapabilityStore.open(
+                    new File(app.getCacheDir(), STORE_FILE_NAME), Build.FINGERPRINT);
+            sInstance = new CameraInfoCache(
+                    (CameraManager) app.getSystemService(Context.CAMERA_SERVICE), store,
+                    previewOutputClass);
+            sInstance.loadInBackground();
+        }
+        return sInstance;
+    }
+
+    private final CameraManager mCameraManager;
+
+    private final CapabilityStore mStore;
+
+    private final Class mPreviewOutputClass;
+
+    /**
+     * Runs the loads, checks and writes of {@link #mStore}.
+     */
+    private final Handler mStoreHandler;
+
+    private final ArrayMap<String, Entry> mEntries = new ArrayMap<>();
+
+    private String[] mCameraIds;
+
+    /**
+     * The camera ID chosen for each {@link CameraCharacteristics#LENS_FACING}, or {@code null} if
+     * no camera that is not legacy faces that way.
+     */
+    private final SparseArray<String> mCameraIdsByFacing = new SparseArray<>();
+
+    private final CameraManager.AvailabilityCallback mAvailabilityCallback
+            = new CameraManager.AvailabilityCallback() {
+
+        @Override
+        public void onCameraAvailable(@NonNull String cameraId) {
+            synchronized (CameraInfoCache.this) {
+                if (mCameraIds != null && !contains(mCameraIds, cameraId)) {
+                    // A camera was connected, or one was replaced under the same ID.
+                    invalidate(cameraId);
+                }
+            }
+        }
+
+    };
+
+    private CameraInfoCache(CameraManager cameraManager, CapabilityStore store,
+            Class previewOutputClass) {
+        mCameraManager = cameraManager;
+        mStore = store;
+        mPreviewOutputClass = previewOutputClass;
+        final HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mStoreHandler = new Handler(thread.getLooper());
+        mCameraManager.registerAvailabilityCallback(mAvailabilityCallback,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    /**
+     * @return The IDs of the camera devices, as returned by
+     * {@link CameraManager#getCameraIdList()}. Do not modify the array.
+     */
+    synchronized String[] getCameraIdList() throws CameraAccessException {
+        if (mCameraIds == null) {
+            mCameraIds = mStore.getCameraIds();
+        }
+        if (mCameraIds == null) {
+            mCameraIds = mCameraManager.getCameraIdList();
+            mStore.setCameraIds(mCameraIds);
+            mStore.saveInBackground(mStoreHandler);
+        }
+        return mCameraIds;
+    }
+
+    /**
+     * @return The cached information about the camera {@code cameraId}.
+     */
+    synchronized Entry getEntry(String cameraId) throws CameraAccessException {
+        Entry entry = mEntries.get(cameraId);
+        if (entry == null) {
+            final CameraCapabilities capabilities = mStore.get(cameraId);
+            if (capabilities != null) {
+                entry = new Entry(mCameraManager, capabilities, null);
+            } else {
+                final CameraCharacteristics characteristics =
+                        mCameraManager.getCameraCharacteristics(cameraId);
+                entry = new Entry(mCameraManager,
+                        describe(cameraId, characteristics, mPreviewOutputClass), characteristics);
+                mStore.put(entry.getCapabilities());
+                mStore.saveInBackground(mStoreHandler);
+            }
+            mEntries.put(cameraId, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @param lensFacing One of the {@link CameraCharacteristics#LENS_FACING} values.
+     * @return The first camera facing {@code lensFacing} that is not legacy, or {@code null}.
+     */
+    synchronized String getCameraIdByFacing(int lensFacing) throws CameraAccessException {
+        final int index = mCameraIdsByFacing.indexOfKey(lensFacing);
+        if (index >= 0) {
+            return mCameraIdsByFacing.valueAt(index);
+        }
+        String found = null;
+        for (String id : getCameraIdList()) {
+            final Entry entry = getEntry(id);
+            if (!entry.isLegacy() && entry.getLensFacing() == lensFacing) {
+                found = id;
+                break;
+            }
+        }
+        mCameraIdsByFacing.put(lensFacing, found);
+        return found;
+    }
+
+    /**
+     * Records the size tables that {@link Camera2} built for {@code entry}.
+     */
+    void setSizes(Entry entry, SizeMap previewSizes, SizeMap pictureSizes, SizeMap yuvSizes) {
+        final CameraCapabilities capabilities;
+        synchronized (entry) {
+            capabilities = entry.mCapabilities.withSizes(previewSizes, pictureSizes, yuvSizes);
+            entry.mCapabilities = capabilities;
+        }
+        mStore.put(capabilities);
+        mStore.saveInBackground(mStoreHandler);
+    }
+
+    /**
+     * Drops the camera ID list and the entry for {@code cameraId}.
+     */
+    synchronized void invalidate(String cameraId) {
+        mCameraIds = null;
+        mCameraIdsByFacing.clear();
+        mEntries.remove(cameraId);
+        mStore.setCameraIds(null);
+        mStore.remove(cameraId);
+        mStore.saveInBackground(mStoreHandler);
+    }
+
+    /**
+     * Loads {@link #mStore} on {@link #mStoreHandler}, then checks what it loaded against the
+     * cameras. Stale entries are dropped for the next start, and the characteristics of the
+     * others are fetched ahead of time.
+     */
+    private void loadInBackground() {
+        mStoreHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mStore.isLoaded()) {
+                    return;
+                }
+                try {
+                    validate();
+                    mStore.save();
+                } catch (CameraAccessException | IOException e) {
+                    Log.w(TAG, "Failed to validate the camera capabilities.", e);
+                }
+            }
+        });
+    }
+
+    private void validate() throws CameraAccessException {
+        final String[] ids = mCameraManager.getCameraIdList();
+        synchronized (this) {
+            if (!Arrays.equals(ids, mStore.getCameraIds())) {
+                mCameraIds = null;
+                mCameraIdsByFacing.clear();
+                mEntries.clear();
+                mStore.clear();
+                mStore.setCameraIds(ids);
+            }
+        }
+        for (String id : ids) {
+            final CameraCharacteristics characteristics =
+                    mCameraManager.getCameraCharacteristics(id);
+            final CameraCapabilities fresh = describe(id, characteristics, mPreviewOutputClass);
+            final CameraCapabilities stored = mStore.get(id);
+            if (stored == null || stored.sourceHash != fresh.sourceHash) {
+                synchronized (this) {
+                    mCameraIdsByFacing.clear();
+                    mEntries.remove(id);
+                }
+                mStore.put(fresh);
+                continue;
+            }
+            final Entry entry;
+            synchronized (this) {
+                entry = mEntries.get(id);
+            }
+            if (entry != null) {
+                entry.setCharacteristics(characteristics);
+            }
+        }
+    }
+
+    /**
+     * Derives the {@link CameraCapabilities} of a camera, without its size tables.
+     *
+     * @param previewOutputClass The class whose output sizes are the preview sizes.
+     */
+    static CameraCapabilities describe(String id, CameraCharacteristics characteristics,
+            Class previewOutputClass) {
+        final Integer level = characteristics.get(
+                CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        final Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        final Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        final int[] afModes = characteristics.get(
+                CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        int focusModes = 0;
+        if (afModes != null) {
+            for (int mode : afModes) {
+                switch (mode) {
+                    case CameraCharacteristics.CONTROL_AF_MODE_OFF:
+                        focusModes |= CameraCapabilities.FOCUS_FIXED;
+                        break;
+                    case CameraCharacteristics.CONTROL_AF_MODE_CONTINUOUS_PICTURE:
+                    case CameraCharacteristics.CONTROL_AF_MODE_CONTINUOUS_VIDEO:
+                        focusModes |= CameraCapabilities.FOCUS_CONTINUOUS;
+                        break;
+                    default:
+                        focusModes |= CameraCapabilities.FOCUS_AUTO;
+                        break;
+                }
+            }
+        }
+        final Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        int flashModes = 1 << Constants.FLASH_OFF;
+        if (flash != null && flash) {
+            flashModes |= 1 << Constants.FLASH_ON | 1 << Constants.FLASH_TORCH |
+                    1 << Constants.FLASH_AUTO | 1 << Constants.FLASH_RED_EYE;
+        }
+        return new CameraCapabilities(id,
+                facing == null ? -1 : facing,
+                level == null ? -1 : level,
+                orientation == null ? 0 : orientation,
+                focusModes, flashModes, hash(characteristics, previewOutputClass), null, null,
+                null);
+    }
+
+    /**
+     * Hashes what {@link Camera2} derives from the characteristics, so that a stale
+     * {@link CameraCapabilities} can be told apart from a valid one.
+     */
+    private static long hash(CameraCharacteristics characteristics, Class previewOutputClass) {
+        long hash = 1;
+        hash = 31 * hash + String.valueOf(characteristics.get(
+                CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL)).hashCode();
+        hash = 31 * hash + String.valueOf(characteristics.get(
+                CameraCharacteristics.LENS_FACING)).hashCode();
+        hash = 31 * hash + String.valueOf(characteristics.get(
+                CameraCharacteristics.SENSOR_ORIENTATION)).hashCode();
+        hash = 31 * hash + Arrays.hashCode(characteristics.get(
+                CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES));
+        hash = 31 * hash + String.valueOf(characteristics.get(
+                CameraCharacteristics.FLASH_INFO_AVAILABLE)).hashCode();
+        final StreamConfigurationMap map = characteristics.get(
+                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            hash = 31 * hash + Arrays.hashCode(map.getOutputSizes(previewOutputClass));
+            hash = 31 * hash + Arrays.hashCode(map.getOutputSizes(ImageFormat.JPEG));
+            hash = 31 * hash + Arrays.hashCode(map.getOutputSizes(ImageFormat.YUV_420_888));
+            if (Build.VERSION.SDK_INT >= 23) {
+                hash = 31 * hash + hashHighResolutionSizes(map);
+            }
+        }
+        return hash;
+    }
+
+    @TargetApi(23)
+    private static int hashHighResolutionSizes(StreamConfigurationMap map) {
+        return Arrays.hashCode(map.getHighResolutionOutputSizes(ImageFormat.JPEG));
+    }
+
+    private static boolean contains(String[] ids, String id) {
+        for (String i : ids) {
+            if (i.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * What is known about a camera device.
+     */
+    static class Entry {
+
+        private final CameraManager mCameraManager;
+
+        private CameraCapabilities mCapabilities;
+
+        private CameraCharacteristics mCharacteristics;
+
+        private volatile boolean mStopsPreviewForCapture;
+
+        Entry(CameraManager cameraManager, CameraCapabilities capabilities,
+                CameraCharacteristics characteristics) {
+            mCameraManager = cameraManager;
+            mCapabilities = capabilities;
+            mCharacteristics = characteristics;
+        }
+
+        synchronized CameraCapabilities getCapabilities() {
+            return mCapabilities;
+        }
+
+        /**
+         * @return The characteristics, fetched from the camera service if they are not known yet.
+         */
+        synchronized CameraCharacteristics getCharacteristics() throws CameraAccessException {
+            if (mCharacteristics == null) {
+                mCharacteristics = mCameraManager.getCameraCharacteristics(mCapabilities.id);
+            }
+            return mCharacteristics;
+        }
+
+        synchronized void setCharacteristics(CameraCharacteristics characteristics) {
+            if (mCharacteristics == null) {
+                mCharacteristics = characteristics;
+            }
+        }
+
+        /**
+         * @return The {@link CameraCharacteristics#LENS_FACING}, or -1 if it is unknown.
+         */
+        int getLensFacing() {
+            return getCapabilities().facing;
+        }
+
+        /**
+         * @return {@code true} if the camera failed to capture still pictures along with the
+         * preview, so that the preview has to be stopped for each capture. This lasts for the
+         * life of the process.
+         */
+        boolean stopsPreviewForCapture() {
+            return mStopsPreviewForCapture;
+        }
+
+        void setStopsPreviewForCapture() {
+            mStopsPreviewForCapture = true;
+        }
+
+        /**
+         * @return {@code true} if the camera is only supported through the legacy layer, and
+         * should be used with the Camera1 API instead.
+         */
+        boolean isLegacy() {
+            final int level = getCapabilities().hardwareLevel;
+            return level == -1 ||
+                    level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        }
+
+    }
+
+}
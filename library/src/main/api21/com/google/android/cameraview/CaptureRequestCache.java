@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.hardware.camera2.CaptureRequest;
+
+import java.util.Arrays;
+
+/**
+ * <p>The requests of one capture session, built once per combination of flash and autofocus
+ * modes.</p>
+ * <p>Changing a setting, locking the focus, or taking a picture then only picks a request that is
+ * already built. The requests target the surfaces of the session, so a cache is dropped along
+ * with its session.</p>
+ * <p>This class is thread-safe.</p>
+ */
+@TargetApi(21)
+class CaptureRequestCache {
+
+    /** The repeating preview request. */
+    static final int PREVIEW = 0;
+
+    /** Triggers the autofocus lock. */
+    static final int LOCK_FOCUS = 1;
+
+    /** Triggers the auto-exposure precapture sequence. */
+    static final int PRECAPTURE = 2;
+
+    /** Cancels the autofocus lock. */
+    static final int UNLOCK_FOCUS = 3;
+
+    private static final int KIND_COUNT = 4;
+
+    private static final int FLASH_COUNT = 5;
+
+    private static final int ORIENTATION_COUNT = 4;
+
+    private final CaptureRequest.Builder mPreviewBuilder;
+
+    private final CaptureRequest.Builder mStillBuilder;
+
+    /**
+     * The flash mode of the still capture template, for the flash modes that leave it to the
+     * auto-exposure.
+     */
+    private final Integer mDefaultStillFlashMode;
+
+    private final CaptureRequest[] mPreviewRequests =
+            new CaptureRequest[KIND_COUNT * FLASH_COUNT * 2];
+
+    /**
+     * The still capture requests by flash, autofocus and orientation, and then by their position
+     * in a burst.
+     */
+    private final CaptureRequest[][] mStillRequests =
+            new CaptureRequest[FLASH_COUNT * 2 * ORIENTATION_COUNT][];
+
+    /**
+     * @param previewBuilder The builder of the preview requests, with all the preview surfaces.
+     * @param stillBuilder   The builder of the still capture requests, with the picture surface.
+     */
+    CaptureRequestCache(CaptureRequest.Builder previewBuilder,
+            CaptureRequest.Builder stillBuilder) {
+        mPreviewBuilder = previewBuilder;
+        mStillBuilder = stillBuilder;
+        mDefaultStillFlashMode = stillBuilder.get(CaptureRequest.FLASH_MODE);
+    }
+
+    /**
+     * @param kind      One of {@link #PREVIEW}, {@link #LOCK_FOCUS}, {@link #PRECAPTURE} and
+     *                  {@link #UNLOCK_FOCUS}.
+     * @param flash     The flash mode.
+     * @param autoFocus {@code true} for the continuous autofocus.
+     * @return The request.
+     */
+    synchronized CaptureRequest getPreviewRequest(int kind, int flash, boolean autoFocus) {
+        final int key = (kind * FLASH_COUNT + flash) * 2 + (autoFocus ? 1 : 0);
+        CaptureRequest request = mPreviewRequests[key];
+        if (request == null) {
+            setAutoFocus(mPreviewBuilder, autoFocus);
+            setPreviewFlash(mPreviewBuilder, flash);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                    kind == LOCK_FOCUS ? CaptureRequest.CONTROL_AF_TRIGGER_START :
+                            kind == UNLOCK_FOCUS ? CaptureRequest.CONTROL_AF_TRIGGER_CANCEL :
+                                    CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            mPreviewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    kind == PRECAPTURE ? CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START :
+                            CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+            request = mPreviewBuilder.build();
+            mPreviewRequests[key] = request;
+        }
+        return request;
+    }
+
+    /**
+     * @param flash       The flash mode.
+     * @param autoFocus   {@code true} for the continuous autofocus.
+     * @param orientation The JPEG orientation, in multiples of 90 degrees.
+     * @param index       The position of the picture in its burst. The request is tagged with it.
+     * @return The request.
+     */
+    synchronized CaptureRequest getStillRequest(int flash, boolean autoFocus, int orientation,
+            int index) {
+        final int key = ((flash * 2) + (autoFocus ? 1 : 0)) * ORIENTATION_COUNT +
+                orientation / 90;
+        CaptureRequest[] requests = mStillRequests[key];
+        if (requests == null || requests.length <= index) {
+            requests = requests == null ? new CaptureRequest[index + 1] :
+                    Arrays.copyOf(requests, index + 1);
+            mStillRequests[key] = requests;
+        }
+        CaptureRequest request = requests[index];
+        if (request == null) {
+            setAutoFocus(mStillBuilder, autoFocus);
+            setStillFlash(flash);
+            mStillBuilder.set(CaptureRequest.JPEG_ORIENTATION, orientation);
+            mStillBuilder.setTag(index);
+            request = mStillBuilder.build();
+            requests[index] = request;
+        }
+        return request;
+    }
+
+    private static void setAutoFocus(CaptureRequest.Builder builder, boolean autoFocus) {
+        builder.set(CaptureRequest.CONTROL_AF_MODE, autoFocus ?
+                CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE :
+                CaptureRequest.CONTROL_AF_MODE_OFF);
+    }
+
+    private static void setPreviewFlash(CaptureRequest.Builder builder, int flash) {
+        switch (flash) {
+            case Constants.FLASH_OFF:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_ON:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_TORCH:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_TORCH);
+                break;
+            case Constants.FLASH_AUTO:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_RED_EYE:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH_REDEYE);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+        }
+    }
+
+    private void setStillFlash(int flash) {
+        final CaptureRequest.Builder builder = mStillBuilder;
+        switch (flash) {
+            case Constants.FLASH_OFF:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_OFF);
+                break;
+            case Constants.FLASH_ON:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+                builder.set(CaptureRequest.FLASH_MODE, mDefaultStillFlashMode);
+                break;
+            case Constants.FLASH_TORCH:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON);
+                builder.set(CaptureRequest.FLASH_MODE,
+                        CaptureRequest.FLASH_MODE_TORCH);
+                break;
+            case Constants.FLASH_AUTO:
+            case Constants.FLASH_RED_EYE:
+                builder.set(CaptureRequest.CONTROL_AE_MODE,
+                        CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                builder.set(CaptureRequest.FLASH_MODE, mDefaultStillFlashMode);
+                break;
+        }
+    }
+
+}
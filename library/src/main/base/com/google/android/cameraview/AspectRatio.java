@@ -19,15 +19,33 @@ package com.google.android.cameraview;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.support.v4.util.SparseArrayCompat;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Immutable class for describing proportional relationship between width and height.
  */
 public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
 
-    private final static SparseArrayCompat<SparseArrayCompat<AspectRatio>> sCache
-            = new SparseArrayCompat<>(16);
+    /**
+     * The number of slots in {@link #sCache}. This must be a power of two.
+     */
+    private static final int CACHE_CAPACITY = 512;
+
+    /**
+     * The number of slots probed for a ratio before giving up on interning it.
+     */
+    private static final int MAX_PROBES = 8;
+
+    /**
+     * <p>Interned instances, in an open-addressing table keyed by the reduced ratio.</p>
+     * <p>Slots are only ever set once, from {@code null}, so lookups need no lock. Once the slots
+     * probed for a ratio are all taken, {@link #of(int, int)} returns a new instance instead,
+     * which keeps the table bounded. That is still correct, as instances are compared with
+     * {@link #equals(Object)}.</p>
+     */
+    private static final AtomicReferenceArray<AspectRatio> sCache
+            = new AtomicReferenceArray<>(CACHE_CAPACITY);
 
     private final int mX;
     private final int mY;
@@ -44,21 +62,28 @@ public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
         int gcd = gcd(x, y);
         x /= gcd;
         y /= gcd;
-        SparseArrayCompat<AspectRatio> arrayX = sCache.get(x);
-        if (arrayX == null) {
-            AspectRatio ratio = new AspectRatio(x, y);
-            arrayX = new SparseArrayCompat<>();
-            arrayX.put(y, ratio);
-            sCache.put(x, arrayX);
-            return ratio;
-        } else {
-            AspectRatio ratio = arrayX.get(y);
+        final long key = ((long) x << 32) | (y & 0xffffffffL);
+        // Fibonacci hashing spreads the small, similar keys over the table.
+        int index = (int) ((key * 0x9e3779b97f4a7c15L) >>> 32) & (CACHE_CAPACITY - 1);
+        AspectRatio created = null;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            AspectRatio ratio = sCache.get(index);
             if (ratio == null) {
-                ratio = new AspectRatio(x, y);
-                arrayX.put(y, ratio);
+                if (created == null) {
+                    created = new AspectRatio(x, y);
+                }
+                if (sCache.compareAndSet(index, null, created)) {
+                    return created;
+                }
+                // Another thread took the slot; it may have interned the same ratio.
+                ratio = sCache.get(index);
+            }
+            if (ratio.mX == x && ratio.mY == y) {
+                return ratio;
             }
-            return ratio;
+            index = (index + 1) & (CACHE_CAPACITY - 1);
         }
+        return created != null ? created : new AspectRatio(x, y);
     }
 
     /**
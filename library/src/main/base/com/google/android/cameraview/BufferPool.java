@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>A pool of recyclable byte arrays for picture data.</p>
+ * <p>Arrays are bucketed by their capacity, which is the requested size rounded up to the next
+ * eighth of a power of two. This way, pictures of the same dimensions share buckets even though
+ * their JPEG sizes differ slightly. The total size of the arrays kept in the pool never exceeds
+ * {@link #getMaxSize()}.</p>
+ * <p>This class is thread-safe.</p>
+ */
+public class BufferPool {
+
+    private static final int MIN_CAPACITY = 4096;
+
+    /**
+     * An array acquired for a request is at most this many times larger than the request.
+     */
+    private static final int MAX_OVERSIZE_FACTOR = 2;
+
+    private final TreeMap<Integer, ArrayDeque<byte[]>> mBuckets = new TreeMap<>();
+
+    private long mMaxSize;
+
+    private long mSize;
+
+    private long mHitCount;
+
+    private long mMissCount;
+
+    /**
+     * @param maxSize The maximum total size in bytes of the arrays kept in this pool.
+     */
+    public BufferPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns an array that can hold at least {@code size} bytes. The array is taken from the pool
+     * if possible.
+     *
+     * @param size The minimum size of the array.
+     * @return An array. Its contents are undefined.
+     */
+    public synchronized byte[] acquire(int size) {
+        final int capacity = capacityFor(size);
+        final Map.Entry<Integer, ArrayDeque<byte[]>> entry = mBuckets.ceilingEntry(capacity);
+        if (entry != null && entry.getKey() / MAX_OVERSIZE_FACTOR <= capacity) {
+            final ArrayDeque<byte[]> bucket = entry.getValue();
+            final byte[] array = bucket.poll();
+            if (bucket.isEmpty()) {
+                mBuckets.remove(entry.getKey());
+            }
+            mSize -= array.length;
+            mHitCount++;
+            return array;
+        }
+        mMissCount++;
+        return new byte[capacity];
+    }
+
+    /**
+     * Returns an array to the pool. The array is dropped if the pool is full.
+     *
+     * @param array The array, typically one acquired with {@link #acquire(int)}.
+     */
+    public synchronized void release(byte[] array) {
+        if (array == null || mSize + array.length > mMaxSize) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = mBuckets.get(array.length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(array.length, bucket);
+        }
+        bucket.push(array);
+        mSize += array.length;
+    }
+
+    /**
+     * Sets the maximum total size of the arrays kept in this pool. Setting it to 0 disables
+     * pooling.
+     *
+     * @param maxSize The maximum size in bytes.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * @return The maximum total size in bytes of the arrays kept in this pool.
+     */
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return The total size in bytes of the arrays currently kept in this pool.
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return The number of times {@link #acquire(int)} returned a recycled array.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of times {@link #acquire(int)} had to allocate a new array.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Drops all the arrays kept in this pool.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    private void trimToSize(long size) {
+        while (mSize > size && !mBuckets.isEmpty()) {
+            // Drop the largest arrays first
+            final Map.Entry<Integer, ArrayDeque<byte[]>> entry = mBuckets.lastEntry();
+            final ArrayDeque<byte[]> bucket = entry.getValue();
+            mSize -= bucket.poll().length;
+            if (bucket.isEmpty()) {
+                mBuckets.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Rounds {@code size} up to the next eighth of a power of two.
+     */
+    static int capacityFor(int size) {
+        if (size <= MIN_CAPACITY) {
+            return MIN_CAPACITY;
+        }
+        final int step = Integer.highestOneBit(size - 1) >> 3;
+        return (size + step - 1) / step * step;
+    }
+
+}
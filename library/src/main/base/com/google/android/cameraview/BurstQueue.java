@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.ArrayDeque;
+
+/**
+ * <p>Runs bursts one at a time. A burst that is requested while another one is running waits for
+ * its turn, instead of being dropped, so that every request ends up with its pictures.</p>
+ * <p>This class is not thread-safe; it is used on the camera thread.</p>
+ */
+class BurstQueue {
+
+    /**
+     * A burst waiting for its turn.
+     */
+    static class Request {
+
+        final int mCount;
+
+        final CaptureTimeline mTimeline;
+
+        Request(int count, CaptureTimeline timeline) {
+            mCount = count;
+            mTimeline = timeline;
+        }
+
+    }
+
+    private final ArrayDeque<Request> mWaiting = new ArrayDeque<>();
+
+    private boolean mRunning;
+
+    /**
+     * Requests a burst.
+     *
+     * @return {@code true} if nothing is running, and the burst should start now. Otherwise, it
+     * is queued and returned by {@link #next()} once its turn comes.
+     */
+    boolean offer(int count, CaptureTimeline timeline) {
+        if (mRunning) {
+            mWaiting.add(new Request(count, timeline));
+            return false;
+        }
+        mRunning = true;
+        return true;
+    }
+
+    /**
+     * Marks the running burst as finished, if any.
+     *
+     * @return The burst that should start now, or {@code null} if none is waiting.
+     */
+    Request next() {
+        final Request next = mWaiting.poll();
+        mRunning = next != null;
+        return next;
+    }
+
+    /**
+     * Forgets the running burst, whose pictures will not come anymore, such as when the camera is
+     * switched. The waiting ones are kept for {@link #next()}.
+     */
+    void abort() {
+        mRunning = false;
+    }
+
+    /**
+     * Forgets the running burst and the waiting ones.
+     */
+    void clear() {
+        mRunning = false;
+        mWaiting.clear();
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return The number of bursts waiting for their turn.
+     */
+    int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <p>What a camera device supports, as recorded in a {@link CapabilityStore}. Instances are
+ * immutable, and their size tables must not be modified.</p>
+ * <p>The fields that are not known are -1, and the size tables that have not been built are
+ * {@code null}.</p>
+ */
+class CameraCapabilities {
+
+    /** The focus distance cannot be changed. */
+    static final int FOCUS_FIXED = 1;
+
+    /** The focus can be triggered. */
+    static final int FOCUS_AUTO = 1 << 1;
+
+    /** The focus can be adjusted continuously. */
+    static final int FOCUS_CONTINUOUS = 1 << 2;
+
+    /**
+     * The camera ID, as a string for both camera APIs.
+     */
+    final String id;
+
+    /**
+     * The facing, as reported by the camera API that recorded it.
+     */
+    final int facing;
+
+    final int hardwareLevel;
+
+    final int sensorOrientation;
+
+    /**
+     * The supported focus modes, as a combination of the {@code FOCUS_} flags.
+     */
+    final int focusModes;
+
+    /**
+     * The supported flash modes, with the bit {@code 1 << FLASH_*} set for each supported mode.
+     */
+    final int flashModes;
+
+    /**
+     * A hash of the data this was derived from, to check whether it is still valid.
+     */
+    final long sourceHash;
+
+    final SizeMap previewSizes;
+
+    final SizeMap pictureSizes;
+
+    final SizeMap yuvSizes;
+
+    CameraCapabilities(String id, int facing, int hardwareLevel, int sensorOrientation,
+            int focusModes, int flashModes, long sourceHash, SizeMap previewSizes,
+            SizeMap pictureSizes, SizeMap yuvSizes) {
+        this.id = id;
+        this.facing = facing;
+        this.hardwareLevel = hardwareLevel;
+        this.sensorOrientation = sensorOrientation;
+        this.focusModes = focusModes;
+        this.flashModes = flashModes;
+        this.sourceHash = sourceHash;
+        this.previewSizes = snapshot(previewSizes);
+        this.pictureSizes = snapshot(pictureSizes);
+        this.yuvSizes = snapshot(yuvSizes);
+    }
+
+    /**
+     * @return A copy of these capabilities with the specified size tables.
+     */
+    CameraCapabilities withSizes(SizeMap previewSizes, SizeMap pictureSizes, SizeMap yuvSizes) {
+        return new CameraCapabilities(id, facing, hardwareLevel, sensorOrientation, focusModes,
+                flashModes, sourceHash, previewSizes, pictureSizes, yuvSizes);
+    }
+
+    boolean hasSizes() {
+        return previewSizes != null;
+    }
+
+    /**
+     * @return The aspect ratios that have both preview and picture sizes.
+     */
+    Set<AspectRatio> getSupportedAspectRatios() {
+        if (previewSizes == null || pictureSizes == null) {
+            return Collections.emptySet();
+        }
+        final Set<AspectRatio> ratios = new HashSet<>();
+        for (AspectRatio ratio : previewSizes.ratios()) {
+            if (pictureSizes.sizes(ratio) != null) {
+                ratios.add(ratio);
+            }
+        }
+        return Collections.unmodifiableSet(ratios);
+    }
+
+    /**
+     * Packs the sizes of {@code sizes} into a sorted array, with the width in the upper 32 bits.
+     *
+     * @return The packed sizes, or {@code null} if {@code sizes} is {@code null}.
+     */
+    static long[] pack(SizeMap sizes) {
+        return sizes == null ? null : sizes.pack();
+    }
+
+    private static SizeMap snapshot(SizeMap sizes) {
+        return sizes == null ? null : sizes.snapshot();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraCapabilities)) {
+            return false;
+        }
+        final CameraCapabilities other = (CameraCapabilities) o;
+        return id.equals(other.id) &&
+                facing == other.facing &&
+                hardwareLevel == other.hardwareLevel &&
+                sensorOrientation == other.sensorOrientation &&
+                focusModes == other.focusModes &&
+                flashModes == other.flashModes &&
+                sourceHash == other.sourceHash &&
+                Arrays.equals(pack(previewSizes), pack(other.previewSizes)) &&
+                Arrays.equals(pack(pictureSizes), pack(other.pictureSizes)) &&
+                Arrays.equals(pack(yuvSizes), pack(other.yuvSizes));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id.hashCode();
+        result = 31 * result + facing;
+        result = 31 * result + hardwareLevel;
+        result = 31 * result + (int) (sourceHash ^ (sourceHash >>> 32));
+        return result;
+    }
+
+}
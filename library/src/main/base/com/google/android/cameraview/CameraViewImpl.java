@@ -26,6 +26,37 @@ abstract class CameraViewImpl {
 
     protected final PreviewImpl mPreview;
 
+    protected BufferPool mBufferPool;
+
+    protected volatile FrameAnalyzer mFrameAnalyzer;
+
+    /**
+     * The frame passed to {@link #mFrameAnalyzer}. It is reused for all the frames.
+     */
+    protected final Frame mFrame = new Frame();
+
+    /**
+     * Runs {@link #mFrameAnalyzer}. Subclasses set this to their own typed dispatcher.
+     */
+    protected FrameDispatcher<?> mFrameDispatcher;
+
+    /**
+     * Measures the preview frame rate. Subclasses feed it with the timestamps of the preview
+     * frames.
+     */
+    protected final FrameRateTracker mFrameRateTracker = new FrameRateTracker();
+
+    /**
+     * The steps of the latest start, up to the first preview frame.
+     */
+    protected volatile StartupTimeline mStartupTimeline;
+
+    protected volatile MemoizedSizeSelector mPreviewSizeSelector =
+            new MemoizedSizeSelector(SizeSelector.smallestCovering());
+
+    protected volatile MemoizedSizeSelector mPictureSizeSelector =
+            new MemoizedSizeSelector(SizeSelector.largest());
+
     CameraViewImpl(Callback callback, PreviewImpl preview) {
         mCallback = callback;
         mPreview = preview;
@@ -35,6 +66,70 @@ abstract class CameraViewImpl {
         return mPreview.getView();
     }
 
+    /**
+     * Sets the pool that picture data is copied into when the implementation cannot hand out
+     * the camera's own buffer.
+     */
+    void setBufferPool(BufferPool bufferPool) {
+        mBufferPool = bufferPool;
+    }
+
+    PreviewMetrics getPreviewMetrics() {
+        return mFrameRateTracker.getMetrics();
+    }
+
+    StartupTimeline getStartupTimeline() {
+        return mStartupTimeline;
+    }
+
+    /**
+     * Records {@code event} in {@link #mStartupTimeline}, if there is one.
+     */
+    protected void markStartup(int event) {
+        final StartupTimeline timeline = mStartupTimeline;
+        if (timeline != null) {
+            timeline.mark(event);
+        }
+    }
+
+    /**
+     * Called for each preview frame. The first one since the start completes
+     * {@link #mStartupTimeline}, and is reported to {@link #mCallback}.
+     */
+    protected void onPreviewFrame() {
+        final StartupTimeline timeline = mStartupTimeline;
+        if (timeline != null && timeline.mark(StartupTimeline.EVENT_FIRST_FRAME)) {
+            mCallback.onPreviewStarted(timeline);
+        }
+    }
+
+    void setPreviewSizeSelector(SizeSelector selector) {
+        if (selector != mPreviewSizeSelector.getSelector()) {
+            mPreviewSizeSelector = new MemoizedSizeSelector(selector);
+            onSizeSelectorChanged();
+        }
+    }
+
+    SizeSelector getPreviewSizeSelector() {
+        return mPreviewSizeSelector.getSelector();
+    }
+
+    void setPictureSizeSelector(SizeSelector selector) {
+        if (selector != mPictureSizeSelector.getSelector()) {
+            mPictureSizeSelector = new MemoizedSizeSelector(selector);
+            onSizeSelectorChanged();
+        }
+    }
+
+    SizeSelector getPictureSizeSelector() {
+        return mPictureSizeSelector.getSelector();
+    }
+
+    /**
+     * Applies new size selectors to the open camera.
+     */
+    abstract void onSizeSelectorChanged();
+
     /**
      * @return {@code true} if the implementation was able to start the camera session.
      */
@@ -67,6 +162,62 @@ abstract class CameraViewImpl {
 
     abstract void takePicture();
 
+    /**
+     * Takes {@code count} pictures in a row. The pictures are passed to
+     * {@link Callback#onPictureTaken(Picture)} in order, marked with their burst index.
+     *
+     * @param destination Where the pictures are saved, or {@code null} to pass them to the
+     *                    callbacks. It is carried by the {@link CaptureTimeline} of each picture.
+     */
+    abstract void takeBurst(int count, PictureSaver.Destination destination);
+
+    /**
+     * Keeps the last {@code depth} full resolution frames so that a picture can be taken from
+     * them without waiting for focus and exposure. A depth of 0 disables it.
+     *
+     * @param maxMemory The maximum size in bytes of the frame buffers.
+     */
+    abstract void setZeroShutterLag(int depth, long maxMemory);
+
+    /**
+     * @return {@code true} if pictures are currently taken from recent frames.
+     */
+    abstract boolean isZeroShutterLagActive();
+
+    /**
+     * Sets the analyzer that receives the preview frames, or {@code null} to stop streaming them.
+     */
+    abstract void setFrameAnalyzer(FrameAnalyzer analyzer);
+
+    /**
+     * Sets how frames are handed over to {@link #mFrameAnalyzer} when it is slower than the
+     * camera.
+     *
+     * @param strategy One of the {@code BACKPRESSURE_} constants in {@link Constants}.
+     * @param capacity The number of frames that can wait for the analyzer.
+     */
+    abstract void setFrameBackpressure(int strategy, int capacity);
+
+    /**
+     * Applies a new strategy to {@link #mFrameDispatcher}, restarting it if it is running.
+     */
+    void restartFrameDispatcher(int strategy, int capacity) {
+        final boolean running = mFrameDispatcher.isRunning();
+        mFrameDispatcher.stop();
+        mFrameDispatcher.setStrategy(strategy, capacity);
+        if (running) {
+            mFrameDispatcher.start();
+        }
+    }
+
+    long getAnalyzedFrameCount() {
+        return mFrameDispatcher.getDeliveredCount();
+    }
+
+    long getDroppedFrameCount() {
+        return mFrameDispatcher.getDroppedCount();
+    }
+
     abstract void setDisplayOrientation(int displayOrientation);
 
     interface Callback {
@@ -75,7 +226,9 @@ abstract class CameraViewImpl {
 
         void onCameraClosed();
 
-        void onPictureTaken(byte[] data);
+        void onPictureTaken(Picture picture);
+
+        void onPreviewStarted(StartupTimeline timeline);
 
     }
 
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.os.Handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Keeps {@link CameraCapabilities} in a compact binary file, so that a cold start does not
+ * have to query the cameras before it can show the first frame.</p>
+ * <p>The file is memory-mapped and parsed the first time the store is used, so that opening it
+ * costs nothing; use it from a background thread first. The file is tied to a build
+ * fingerprint: a file written by another build of the system is ignored, as is a file that fails
+ * its checksum. The callers are expected to check the capabilities against the cameras in the
+ * background, and to {@link #put(CameraCapabilities)} what they find.</p>
+ * <p>This class is thread-safe.</p>
+ */
+class CapabilityStore {
+
+    private static final int MAGIC = 0x43565343; // "CVSC"
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<String, CapabilityStore> sStores = new HashMap<>();
+
+    /**
+     * Returns the store for {@code file}. It is loaded on first use.
+     *
+     * @param file        The file of the store.
+     * @param fingerprint The fingerprint of the system build.
+     */
+    static synchronized CapabilityStore open(File file, String fingerprint) {
+        final String path = file.getAbsolutePath();
+        CapabilityStore store = sStores.get(path);
+        if (store == null) {
+            store = new CapabilityStore(file, fingerprint);
+            sStores.put(path, store);
+        }
+        return store;
+    }
+
+    private final File mFile;
+
+    private final String mFingerprint;
+
+    private final LinkedHashMap<String, CameraCapabilities> mCameras = new LinkedHashMap<>();
+
+    private String[] mCameraIds;
+
+    private boolean mLoaded;
+
+    /**
+     * Whether {@link #load()} has run, successfully or not.
+     */
+    private boolean mLoadAttempted;
+
+    /**
+     * Incremented for each change, to skip saving when nothing changed.
+     */
+    private int mVersion;
+
+    private int mSavedVersion;
+
+    private final Object mFileLock = new Object();
+
+    private final Runnable mSaveTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                save();
+            } catch (IOException e) {
+                // The store is only a cache; the next launch queries the cameras again.
+                //noinspection ResultOfMethodCallIgnored
+                mFile.delete();
+            }
+        }
+    };
+
+    CapabilityStore(File file, String fingerprint) {
+        mFile = file;
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * @return {@code true} if the store was filled from its file.
+     */
+    synchronized boolean isLoaded() {
+        ensureLoaded();
+        return mLoaded;
+    }
+
+    /**
+     * @return The camera IDs in the order of the camera API, or {@code null} if they are not
+     * known.
+     */
+    synchronized String[] getCameraIds() {
+        ensureLoaded();
+        return mCameraIds == null ? null : mCameraIds.clone();
+    }
+
+    synchronized void setCameraIds(String[] ids) {
+        ensureLoaded();
+        if (!Arrays.equals(mCameraIds, ids)) {
+            mCameraIds = ids == null ? null : ids.clone();
+            mVersion++;
+        }
+    }
+
+    /**
+     * @return The capabilities of the camera {@code id}, or {@code null} if they are not known.
+     */
+    synchronized CameraCapabilities get(String id) {
+        ensureLoaded();
+        return mCameras.get(id);
+    }
+
+    synchronized List<CameraCapabilities> getAll() {
+        ensureLoaded();
+        return new ArrayList<>(mCameras.values());
+    }
+
+    /**
+     * Records the capabilities of a camera.
+     *
+     * @return {@code true} if they differ from what was recorded.
+     */
+    synchronized boolean put(CameraCapabilities capabilities) {
+        ensureLoaded();
+        if (capabilities.equals(mCameras.get(capabilities.id))) {
+            return false;
+        }
+        mCameras.put(capabilities.id, capabilities);
+        mVersion++;
+        return true;
+    }
+
+    synchronized void remove(String id) {
+        ensureLoaded();
+        if (mCameras.remove(id) != null) {
+            mVersion++;
+        }
+    }
+
+    /**
+     * Forgets everything, for example when the set of cameras has changed.
+     */
+    synchronized void clear() {
+        ensureLoaded();
+        if (mCameraIds != null || !mCameras.isEmpty()) {
+            mCameraIds = null;
+            mCameras.clear();
+            mVersion++;
+        }
+    }
+
+    /**
+     * Writes the store to its file on the thread of {@code handler}, if it changed since it was
+     * last written. Saves that are still waiting on that thread are merged into this one.
+     *
+     * @param handler A handler of a background thread, such as the camera thread.
+     */
+    void saveInBackground(Handler handler) {
+        synchronized (this) {
+            if (mVersion == mSavedVersion) {
+                return;
+            }
+        }
+        handler.removeCallbacks(mSaveTask);
+        handler.post(mSaveTask);
+    }
+
+    /**
+     * Writes the store to its file. The file is replaced atomically.
+     */
+    void save() throws IOException {
+        synchronized (mFileLock) {
+            final byte[] data;
+            final int version;
+            synchronized (this) {
+                if (mVersion == mSavedVersion) {
+                    return;
+                }
+                data = encode();
+                version = mVersion;
+            }
+            final File temp = new File(mFile.getPath() + ".tmp");
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + temp + " to " + mFile);
+            }
+            synchronized (this) {
+                mSavedVersion = version;
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!mLoadAttempted) {
+            mLoadAttempted = true;
+            load();
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                final FileChannel channel = file.getChannel();
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+                mLoaded = decode(buffer);
+            } finally {
+                file.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or corrupt
+            mLoaded = false;
+        }
+        if (!mLoaded) {
+            mCameraIds = null;
+            mCameras.clear();
+        }
+    }
+
+    private byte[] encode() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeString(out, mFingerprint);
+        if (mCameraIds == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(mCameraIds.length);
+            for (String id : mCameraIds) {
+                writeString(out, id);
+            }
+        }
+        out.writeShort(mCameras.size());
+        for (CameraCapabilities camera : mCameras.values()) {
+            writeString(out, camera.id);
+            out.writeInt(camera.facing);
+            out.writeInt(camera.hardwareLevel);
+            out.writeShort(camera.sensorOrientation);
+            out.writeByte(camera.focusModes);
+            out.writeByte(camera.flashModes);
+            out.writeLong(camera.sourceHash);
+            writeSizes(out, camera.previewSizes);
+            writeSizes(out, camera.pictureSizes);
+            writeSizes(out, camera.yuvSizes);
+        }
+        out.flush();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return {@code false} if {@code buffer} is not a valid store for this build.
+     */
+    private boolean decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 4 || !checksumMatches(buffer)) {
+            return false;
+        }
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION ||
+                !mFingerprint.equals(readString(buffer))) {
+            return false;
+        }
+        try {
+            final int idCount = buffer.getShort();
+            if (idCount >= 0) {
+                mCameraIds = new String[idCount];
+                for (int i = 0; i < idCount; i++) {
+                    mCameraIds[i] = readString(buffer);
+                }
+            }
+            final int count = buffer.getShort();
+            for (int i = 0; i < count; i++) {
+                final String id = readString(buffer);
+                final int facing = buffer.getInt();
+                final int hardwareLevel = buffer.getInt();
+                final int sensorOrientation = buffer.getShort();
+                final int focusModes = buffer.get();
+                final int flashModes = buffer.get();
+                final long sourceHash = buffer.getLong();
+                final SizeMap previewSizes = readSizes(buffer);
+                final SizeMap pictureSizes = readSizes(buffer);
+                final SizeMap yuvSizes = readSizes(buffer);
+                mCameras.put(id, new CameraCapabilities(id, facing, hardwareLevel,
+                        sensorOrientation, focusModes, flashModes, sourceHash, previewSizes,
+                        pictureSizes, yuvSizes));
+            }
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean checksumMatches(ByteBuffer buffer) {
+        final ByteBuffer data = buffer.duplicate();
+        final int length = data.remaining() - 4;
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[Math.min(length, 4096)];
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = Math.min(remaining, chunk.length);
+            data.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return data.getInt() == (int) crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        final byte[] bytes = s.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeSizes(DataOutputStream out, SizeMap sizes) throws IOException {
+        final long[] packed = CameraCapabilities.pack(sizes);
+        if (packed == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(packed.length);
+        for (long size : packed) {
+            out.writeLong(size);
+        }
+    }
+
+    private static SizeMap readSizes(ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        final SizeMap sizes = new SizeMap();
+        for (int i = 0; i < count; i++) {
+            final long size = buffer.getLong();
+            sizes.add(SizeMap.unpackWidth(size), SizeMap.unpackHeight(size));
+        }
+        return sizes.snapshot();
+    }
+
+}
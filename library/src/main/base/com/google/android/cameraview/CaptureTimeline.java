@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+
+/**
+ * <p>The monotonic timestamps of the steps a picture went through, from the moment it was
+ * requested to the moment it was handed to the callbacks.</p>
+ * <p>Times come from {@link System#nanoTime()}. Steps that a picture did not go through, such as
+ * the precapture sequence when the exposure is already converged, are not recorded; see
+ * {@link #hasEvent(int)}. A timeline is filled by the camera thread and complete by the time it is
+ * passed to {@link CameraView.Callback#onCaptureTimeline(CameraView, CaptureTimeline)}.</p>
+ */
+public class CaptureTimeline {
+
+    /** {@link CameraView#takePicture()} or {@link CameraView#takeBurst(int)} was called. */
+    public static final int EVENT_REQUESTED = 0;
+
+    /** Autofocus was triggered. */
+    public static final int EVENT_FOCUS_LOCKING = 1;
+
+    /** Autofocus completed. */
+    public static final int EVENT_FOCUS_LOCKED = 2;
+
+    /** The auto-exposure precapture sequence was triggered. Camera2 only. */
+    public static final int EVENT_PRECAPTURE = 3;
+
+    /** The camera started waiting for the auto-exposure to converge. Camera2 only. */
+    public static final int EVENT_WAITING = 4;
+
+    /** The still capture was requested from the camera. */
+    public static final int EVENT_CAPTURING = 5;
+
+    /** The sensor started exposing the picture. */
+    public static final int EVENT_SHUTTER = 6;
+
+    /** The JPEG data became available. */
+    public static final int EVENT_IMAGE_AVAILABLE = 7;
+
+    /** The picture was dispatched to the callbacks on the main thread. */
+    public static final int EVENT_DISPATCHED = 8;
+
+    static final int EVENT_COUNT = 9;
+
+    private static final String[] EVENT_NAMES = {
+            "requested",
+            "focus_locking",
+            "focus_locked",
+            "precapture",
+            "waiting",
+            "capturing",
+            "shutter",
+            "image_available",
+            "dispatched",
+    };
+
+    private static final long NOT_RECORDED = Long.MIN_VALUE;
+
+    private final long[] mTimes;
+
+    private final int mBurstIndex;
+
+    private final int mBurstCount;
+
+    /**
+     * Where the picture is saved, or {@code null}. It travels with the timeline, which follows
+     * the picture from its request to its dispatch.
+     */
+    private final PictureSaver.Destination mDestination;
+
+    private CaptureTimeline(PictureSaver.Destination destination) {
+        this(new long[EVENT_COUNT], 0, 1, destination);
+        Arrays.fill(mTimes, NOT_RECORDED);
+    }
+
+    private CaptureTimeline(long[] times, int burstIndex, int burstCount,
+            PictureSaver.Destination destination) {
+        mTimes = times;
+        mBurstIndex = burstIndex;
+        mBurstCount = burstCount;
+        mDestination = destination;
+    }
+
+    /**
+     * @return A new timeline marked with {@link #EVENT_REQUESTED} at the current time.
+     */
+    static CaptureTimeline start() {
+        return start(null);
+    }
+
+    /**
+     * @param destination Where the picture is saved, or {@code null} to pass it to the
+     *                    callbacks.
+     * @return A new timeline marked with {@link #EVENT_REQUESTED} at the current time.
+     */
+    static CaptureTimeline start(PictureSaver.Destination destination) {
+        final CaptureTimeline timeline = new CaptureTimeline(destination);
+        timeline.mark(EVENT_REQUESTED);
+        return timeline;
+    }
+
+    /**
+     * Records {@code event} at the current time, unless it is already recorded. Retried steps
+     * keep the time of their first attempt.
+     */
+    void mark(int event) {
+        mark(event, System.nanoTime());
+    }
+
+    void mark(int event, long time) {
+        if (mTimes[event] == NOT_RECORDED) {
+            mTimes[event] = time;
+        }
+    }
+
+    /**
+     * @return A copy of this timeline for the {@code index}-th picture of a burst of {@code count}
+     * pictures. The copy records its events independently of this timeline.
+     */
+    CaptureTimeline forShot(int index, int count) {
+        return new CaptureTimeline(mTimes.clone(), index, count, mDestination);
+    }
+
+    PictureSaver.Destination getDestination() {
+        return mDestination;
+    }
+
+    /**
+     * @param event One of the {@code EVENT_} constants.
+     * @return {@code true} if the picture went through {@code event}.
+     */
+    public boolean hasEvent(int event) {
+        return mTimes[event] != NOT_RECORDED;
+    }
+
+    /**
+     * @param event One of the {@code EVENT_} constants.
+     * @return The time of {@code event} in nanoseconds, on the {@link System#nanoTime()} clock.
+     * @throws IllegalStateException when the event is not recorded.
+     */
+    public long getTime(int event) {
+        if (!hasEvent(event)) {
+            throw new IllegalStateException("Not recorded: " + EVENT_NAMES[event]);
+        }
+        return mTimes[event];
+    }
+
+    /**
+     * @return The time from {@code from} to {@code to} in nanoseconds, or -1 if either of them is
+     * not recorded.
+     */
+    public long getDuration(int from, int to) {
+        if (!hasEvent(from) || !hasEvent(to)) {
+            return -1;
+        }
+        return mTimes[to] - mTimes[from];
+    }
+
+    /**
+     * @return The time from {@link #EVENT_REQUESTED} to {@link #EVENT_SHUTTER} in nanoseconds, or
+     * -1 if the shutter is not recorded.
+     */
+    public long getShutterLag() {
+        return getDuration(EVENT_REQUESTED, EVENT_SHUTTER);
+    }
+
+    /**
+     * @return The time from {@link #EVENT_REQUESTED} to {@link #EVENT_DISPATCHED} in nanoseconds,
+     * or -1 if the picture is not dispatched yet.
+     */
+    public long getTotal() {
+        return getDuration(EVENT_REQUESTED, EVENT_DISPATCHED);
+    }
+
+    /**
+     * @return The position of the picture in its burst, starting at 0.
+     */
+    public int getBurstIndex() {
+        return mBurstIndex;
+    }
+
+    /**
+     * @return The number of pictures in the burst.
+     */
+    public int getBurstCount() {
+        return mBurstCount;
+    }
+
+    /**
+     * @return The name of {@code event}, such as {@code "shutter"}.
+     */
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("CaptureTimeline{")
+                .append(mBurstIndex + 1).append('/').append(mBurstCount);
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            if (hasEvent(event)) {
+                builder.append(", ").append(EVENT_NAMES[event]).append("=+")
+                        .append((mTimes[event] - mTimes[EVENT_REQUESTED]) / 1000000).append("ms");
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+}
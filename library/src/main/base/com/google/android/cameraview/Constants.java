@@ -30,6 +30,10 @@ interface Constants {
     int FLASH_AUTO = 3;
     int FLASH_RED_EYE = 4;
 
+    int BACKPRESSURE_KEEP_LATEST = 0;
+    int BACKPRESSURE_BOUNDED_QUEUE = 1;
+    int BACKPRESSURE_BLOCK = 2;
+
     int LANDSCAPE_90 = 90;
     int LANDSCAPE_270 = 270;
 }
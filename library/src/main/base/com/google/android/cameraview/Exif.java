@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Helpers for the EXIF metadata of JPEG pictures.
+ */
+final class Exif {
+
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_SHORT = 3;
+
+    private static final int MARKER_SOI = 0xD8;
+
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int MARKER_SOS = 0xDA;
+
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    /**
+     * The APP1 segment written by {@link #addOrientation(byte[], int, int)}: the marker, the
+     * length, the EXIF header, a big-endian TIFF header, and an IFD with a single entry.
+     */
+    static final int ORIENTATION_SEGMENT_SIZE = 2 + 2 + 6 + 8 + 2 + 12 + 4;
+
+    private Exif() {
+    }
+
+    /**
+     * Converts a clockwise rotation to the value of the EXIF orientation tag.
+     *
+     * @param degrees One of 0, 90, 180, and 270.
+     */
+    static int toOrientation(int degrees) {
+        switch (degrees) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns a copy of a JPEG file without EXIF metadata, with an EXIF segment that only holds
+     * the orientation tag inserted after the start-of-image marker.
+     *
+     * @param jpeg    The JPEG file.
+     * @param length  The length of the JPEG file in {@code jpeg}.
+     * @param degrees The clockwise rotation that makes the picture upright.
+     * @return The new JPEG file.
+     */
+    static byte[] addOrientation(byte[] jpeg, int length, int degrees) {
+        final byte[] result = new byte[length + ORIENTATION_SEGMENT_SIZE];
+        System.arraycopy(jpeg, 0, result, ORIENTATION_SEGMENT_SIZE, length);
+        insertOrientation(result, degrees);
+        return result;
+    }
+
+    /**
+     * Like {@link #addOrientation(byte[], int, int)}, but in place. This is for encoders that
+     * can leave room in front of the file they write.
+     *
+     * @param data    A JPEG file without EXIF metadata, that starts at
+     *                {@link #ORIENTATION_SEGMENT_SIZE}. The bytes before it are overwritten.
+     * @param degrees The clockwise rotation that makes the picture upright.
+     */
+    static void insertOrientation(byte[] data, int degrees) {
+        final int start = ORIENTATION_SEGMENT_SIZE;
+        if (data.length < start + 2 || (data[start] & 0xFF) != 0xFF ||
+                (data[start + 1] & 0xFF) != MARKER_SOI) {
+            throw new IllegalArgumentException("Not a JPEG file.");
+        }
+        int p = 0;
+        // SOI, moved to the front
+        data[p++] = (byte) 0xFF;
+        data[p++] = (byte) MARKER_SOI;
+        // APP1
+        data[p++] = (byte) 0xFF;
+        data[p++] = (byte) MARKER_APP1;
+        p = putShort(data, p, ORIENTATION_SEGMENT_SIZE - 2);
+        data[p++] = 'E';
+        data[p++] = 'x';
+        data[p++] = 'i';
+        data[p++] = 'f';
+        data[p++] = 0;
+        data[p++] = 0;
+        // TIFF header, with the first IFD right after it
+        data[p++] = 'M';
+        data[p++] = 'M';
+        p = putShort(data, p, 42);
+        p = putInt(data, p, 8);
+        // IFD0
+        p = putShort(data, p, 1);
+        p = putShort(data, p, TAG_ORIENTATION);
+        p = putShort(data, p, TYPE_SHORT);
+        p = putInt(data, p, 1);
+        p = putShort(data, p, toOrientation(degrees));
+        p = putShort(data, p, 0);
+        putInt(data, p, 0);
+    }
+
+    /**
+     * Converts the value of the EXIF orientation tag to a clockwise rotation. Mirrored
+     * orientations are not supported, and count as no rotation.
+     *
+     * @param orientation The value of the tag, or 0 if there is no tag.
+     * @return One of 0, 90, 180, and 270.
+     */
+    static int toDegrees(int orientation) {
+        switch (orientation) {
+            case 6:
+                return 90;
+            case 3:
+                return 180;
+            case 8:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads the orientation tag in the IFD0 of the EXIF metadata.
+     *
+     * @param jpeg The JPEG file, from its position to its limit. It is not modified.
+     * @return The value of the tag, or 0 if there is no tag or the metadata is malformed.
+     */
+    static int getOrientation(ByteBuffer jpeg) {
+        final ByteBuffer buffer = jpeg.duplicate();
+        try {
+            final int p = findOrientation(buffer);
+            return p < 0 ? 0 : getUnsignedShort(buffer, p);
+        } catch (IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rewrites the orientation tag in place. The tag cannot be added this way; use
+     * {@link #addOrientation(byte[], int, int)} for pictures without one. The position and limit
+     * of {@code jpeg} are not changed.
+     *
+     * @param jpeg        The JPEG file, from its position to its limit.
+     * @param orientation The new value of the tag. 1 is the upright orientation.
+     * @return {@code false} if there is no tag to rewrite.
+     * @throws java.nio.ReadOnlyBufferException when {@code jpeg} is read-only and has a tag.
+     */
+    static boolean setOrientation(ByteBuffer jpeg, int orientation) {
+        final ByteBuffer buffer = jpeg.duplicate();
+        try {
+            final int p = findOrientation(buffer);
+            if (p < 0) {
+                return false;
+            }
+            buffer.putShort(p, (short) orientation);
+            return true;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the dimensions of the picture from the start-of-frame segment of a JPEG file.
+     *
+     * @param jpeg The JPEG file, from its position to its limit. It is not modified.
+     * @return The size of the picture, or {@code null} if the file is malformed.
+     */
+    static Size getSize(ByteBuffer jpeg) {
+        final ByteBuffer buffer = jpeg.duplicate();
+        try {
+            final int p = findSegment(buffer, true);
+            if (p < 0) {
+                return null;
+            }
+            return new Size(getUnsignedShort(buffer, p + 7), getUnsignedShort(buffer, p + 5));
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>Returns the rotation that makes the picture upright, without decoding it.</p>
+     * <p>Some cameras turn the pixels and still set the orientation tag, which makes viewers
+     * rotate the picture twice. This is detected when the tag rotates by a quarter turn while
+     * the picture is already transposed from the size the camera was set to; the tag is then
+     * cleared in place. A rotation by a half turn cannot be detected this way, and is trusted.</p>
+     *
+     * @param jpeg   The JPEG file, from its position to its limit.
+     * @param width  The width of pictures the camera was set to, before any rotation.
+     * @param height The height of pictures the camera was set to, before any rotation.
+     * @return The clockwise rotation, in degrees, that the viewer has to apply to the pixels.
+     */
+    static int normalizeOrientation(ByteBuffer jpeg, int width, int height) {
+        final int degrees = toDegrees(getOrientation(jpeg));
+        if (degrees % 180 == 0 || width == height) {
+            return degrees;
+        }
+        final Size size = getSize(jpeg);
+        if (size == null || size.getWidth() != height || size.getHeight() != width) {
+            return degrees;
+        }
+        try {
+            setOrientation(jpeg, 1);
+        } catch (ReadOnlyBufferException e) {
+            // The tag stays, but the pixels are upright all the same.
+        }
+        return 0;
+    }
+
+    /**
+     * Finds the JPEG thumbnail that the camera embeds in the second IFD of the EXIF metadata.
+     * Nothing is copied, and the position of {@code jpeg} is not changed.
+     *
+     * @param jpeg The JPEG file, from its position to its limit.
+     * @return The offset of the thumbnail from the position of {@code jpeg} and its length, or
+     * {@code null} if there is no thumbnail or the metadata is malformed.
+     */
+    static int[] findThumbnail(ByteBuffer jpeg) {
+        final ByteBuffer buffer = jpeg.duplicate();
+        try {
+            final int p = findSegment(buffer, false);
+            if (p < 0) {
+                return null;
+            }
+            final int end = Math.min(p + 2 + getUnsignedShort(buffer, p + 2), buffer.limit());
+            final int[] range = findThumbnail(buffer, p + 10, end);
+            if (range != null) {
+                range[0] -= buffer.position();
+            }
+            return range;
+        } catch (IndexOutOfBoundsException e) {
+            // Truncated file
+            return null;
+        }
+    }
+
+    /**
+     * Walks the segments of the JPEG file in {@code buffer} up to the start of the image data.
+     *
+     * @param frame {@code true} to find the start-of-frame segment, {@code false} to find the
+     *              EXIF segment.
+     * @return The position of the marker of the segment, or -1 if there is none.
+     */
+    private static int findSegment(ByteBuffer buffer, boolean frame) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        if (getUnsignedByte(buffer, start) != 0xFF ||
+                getUnsignedByte(buffer, start + 1) != MARKER_SOI) {
+            return -1;
+        }
+        int p = start + 2;
+        while (p + 4 <= limit) {
+            if (getUnsignedByte(buffer, p) != 0xFF) {
+                return -1;
+            }
+            final int marker = getUnsignedByte(buffer, p + 1);
+            if (marker == 0xFF) {
+                // Fill byte
+                p++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return -1;
+            }
+            if (frame ? isStartOfFrame(marker) :
+                    marker == MARKER_APP1 && isExifHeader(buffer, p + 4)) {
+                return p;
+            }
+            p += 2 + getUnsignedShort(buffer, p + 2);
+        }
+        return -1;
+    }
+
+    /**
+     * @return The position of the value of the orientation tag in {@code buffer}, or -1 if there
+     * is no tag. The byte order of {@code buffer} is set to the one of the metadata.
+     */
+    private static int findOrientation(ByteBuffer buffer) {
+        final int p = findSegment(buffer, false);
+        if (p < 0) {
+            return -1;
+        }
+        final int tiff = p + 10;
+        if (!readByteOrder(buffer, tiff)) {
+            return -1;
+        }
+        final int ifd0 = tiff + buffer.getInt(tiff + 4);
+        final int count = getUnsignedShort(buffer, ifd0);
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd0 + 2 + i * IFD_ENTRY_SIZE;
+            if (getUnsignedShort(buffer, entry) == TAG_ORIENTATION &&
+                    getUnsignedShort(buffer, entry + 2) == TYPE_SHORT) {
+                return entry + 8;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the thumbnail location from the TIFF structure at {@code tiff}, which must not extend
+     * past {@code end}.
+     */
+    private static int[] findThumbnail(ByteBuffer buffer, int tiff, int end) {
+        if (!readByteOrder(buffer, tiff)) {
+            return null;
+        }
+        final int ifd0 = tiff + buffer.getInt(tiff + 4);
+        final int ifd1Offset = buffer.getInt(ifd0 + 2 + getUnsignedShort(buffer, ifd0)
+                * IFD_ENTRY_SIZE);
+        if (ifd1Offset <= 0) {
+            return null;
+        }
+        final int ifd1 = tiff + ifd1Offset;
+        final int count = getUnsignedShort(buffer, ifd1);
+        int offset = -1;
+        int length = -1;
+        for (int i = 0; i < count; i++) {
+            final int entry = ifd1 + 2 + i * IFD_ENTRY_SIZE;
+            final int tag = getUnsignedShort(buffer, entry);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = getValue(buffer, entry);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                length = getValue(buffer, entry);
+            }
+        }
+        if (offset <= 0 || length <= 0 || tiff + offset + length > end) {
+            return null;
+        }
+        return new int[]{tiff + offset, length};
+    }
+
+    /**
+     * Sets the byte order of {@code buffer} from the TIFF header at {@code tiff}.
+     *
+     * @return {@code false} if there is no valid TIFF header.
+     */
+    private static boolean readByteOrder(ByteBuffer buffer, int tiff) {
+        if (buffer.get(tiff) == 'I' && buffer.get(tiff + 1) == 'I') {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (buffer.get(tiff) == 'M' && buffer.get(tiff + 1) == 'M') {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0 to SOF15, except DHT, JPG and DAC, which share the range
+        return marker >= 0xC0 && marker <= 0xCF &&
+                marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean isExifHeader(ByteBuffer buffer, int p) {
+        return buffer.get(p) == 'E' && buffer.get(p + 1) == 'x' && buffer.get(p + 2) == 'i' &&
+                buffer.get(p + 3) == 'f' && buffer.get(p + 4) == 0 && buffer.get(p + 5) == 0;
+    }
+
+    /**
+     * Reads the value of an IFD entry that holds a single SHORT or LONG.
+     */
+    private static int getValue(ByteBuffer buffer, int entry) {
+        if (getUnsignedShort(buffer, entry + 2) == TYPE_SHORT) {
+            return getUnsignedShort(buffer, entry + 8);
+        }
+        return buffer.getInt(entry + 8);
+    }
+
+    private static int getUnsignedByte(ByteBuffer buffer, int p) {
+        return buffer.get(p) & 0xFF;
+    }
+
+    private static int getUnsignedShort(ByteBuffer buffer, int p) {
+        return buffer.getShort(p) & 0xFFFF;
+    }
+
+    private static int putShort(byte[] array, int p, int value) {
+        array[p] = (byte) (value >> 8);
+        array[p + 1] = (byte) value;
+        return p + 2;
+    }
+
+    private static int putInt(byte[] array, int p, int value) {
+        p = putShort(array, p, value >> 16);
+        return putShort(array, p, value);
+    }
+
+}
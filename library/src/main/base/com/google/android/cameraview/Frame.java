@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A preview frame delivered to a {@link FrameAnalyzer}.</p>
+ * <p>The same instance is reused for every frame, and the plane buffers are owned by the camera.
+ * Do not keep references to the frame or its buffers after
+ * {@link FrameAnalyzer#analyze(Frame)} returns, and do not modify the buffers.</p>
+ */
+public class Frame {
+
+    static final int MAX_PLANES = 3;
+
+    private final ByteBuffer[] mBuffers = new ByteBuffer[MAX_PLANES];
+
+    private final int[] mRowStrides = new int[MAX_PLANES];
+
+    private final int[] mPixelStrides = new int[MAX_PLANES];
+
+    private int mPlaneCount;
+
+    private int mFormat;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private long mTimestamp;
+
+    private int mRotation;
+
+    Frame() {
+    }
+
+    void set(int format, int width, int height, long timestamp, int rotation) {
+        mFormat = format;
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+        mRotation = rotation;
+        mPlaneCount = 0;
+    }
+
+    void addPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+        mBuffers[mPlaneCount] = buffer;
+        mRowStrides[mPlaneCount] = rowStride;
+        mPixelStrides[mPlaneCount] = pixelStride;
+        mPlaneCount++;
+    }
+
+    /**
+     * Drops the references to the plane buffers.
+     */
+    void clear() {
+        for (int i = 0; i < mPlaneCount; i++) {
+            mBuffers[i] = null;
+        }
+        mPlaneCount = 0;
+    }
+
+    /**
+     * @return The image format, as defined in {@link android.graphics.ImageFormat}. This is
+     * {@link android.graphics.ImageFormat#YUV_420_888} with the Camera2 API, and
+     * {@link android.graphics.ImageFormat#NV21} with Camera1.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The time this frame was captured, in nanoseconds. The time base is monotonic but
+     * otherwise unspecified, so it is only meaningful for comparing frames with each other.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return The clockwise rotation in degrees that makes the frame upright on the current
+     * display. One of 0, 90, 180, and 270.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * @return The number of planes. 3 for {@link android.graphics.ImageFormat#YUV_420_888}
+     * (Y, U and V), and 2 for {@link android.graphics.ImageFormat#NV21} (Y and interleaved VU).
+     */
+    public int getPlaneCount() {
+        return mPlaneCount;
+    }
+
+    /**
+     * @param plane The index of the plane.
+     * @return The pixel data of the plane. The buffer is only valid during
+     * {@link FrameAnalyzer#analyze(Frame)}.
+     */
+    public ByteBuffer getPlaneBuffer(int plane) {
+        checkPlane(plane);
+        return mBuffers[plane];
+    }
+
+    /**
+     * @param plane The index of the plane.
+     * @return The distance in bytes between the starts of two consecutive rows of the plane.
+     */
+    public int getRowStride(int plane) {
+        checkPlane(plane);
+        return mRowStrides[plane];
+    }
+
+    /**
+     * @param plane The index of the plane.
+     * @return The distance in bytes between two consecutive pixel values in a row of the plane.
+     */
+    public int getPixelStride(int plane) {
+        checkPlane(plane);
+        return mPixelStrides[plane];
+    }
+
+    private void checkPlane(int plane) {
+        if (plane < 0 || plane >= mPlaneCount) {
+            throw new IndexOutOfBoundsException("Invalid plane: " + plane);
+        }
+    }
+
+}
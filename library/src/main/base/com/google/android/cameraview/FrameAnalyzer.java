@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * Receives preview frames from {@link CameraView}.
+ *
+ * @see CameraView#setFrameAnalyzer(FrameAnalyzer)
+ */
+public interface FrameAnalyzer {
+
+    /**
+     * Called on a background thread for each preview frame. The camera keeps streaming while
+     * this method runs, so it should return as soon as possible.
+     *
+     * @param frame The frame. It is only valid until this method returns.
+     */
+    void analyze(Frame frame);
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Hands frames from the camera over to a consumer thread, applying one of the backpressure
+ * strategies when the consumer is slower than the camera.</p>
+ * <p>A frame offered to the dispatcher is always released with {@link #onRelease(Object)}
+ * exactly once, whether it is delivered or dropped. Queueing a frame does not allocate.</p>
+ *
+ * @param <T> The type of the frames.
+ */
+abstract class FrameDispatcher<T> {
+
+    /** Only the most recent frame is kept; older pending frames are dropped. */
+    static final int KEEP_LATEST = Constants.BACKPRESSURE_KEEP_LATEST;
+
+    /** Up to a fixed number of frames are kept; the oldest one is dropped when it is full. */
+    static final int BOUNDED_QUEUE = Constants.BACKPRESSURE_BOUNDED_QUEUE;
+
+    /** Up to a fixed number of frames are kept; the producer waits when it is full. */
+    static final int BLOCK = Constants.BACKPRESSURE_BLOCK;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    private final Condition mNotFull = mLock.newCondition();
+
+    private final String mName;
+
+    private int mStrategy = KEEP_LATEST;
+
+    private Object[] mQueue = new Object[1];
+
+    private int mHead;
+
+    private int mCount;
+
+    private Thread mThread;
+
+    private boolean mRunning;
+
+    private long mDeliveredCount;
+
+    private long mDroppedCount;
+
+    /**
+     * @param name The name of the consumer thread.
+     */
+    FrameDispatcher(String name) {
+        mName = name;
+    }
+
+    /**
+     * Called on the consumer thread for each frame that is not dropped.
+     */
+    abstract void onDeliver(T frame);
+
+    /**
+     * Called when the dispatcher is done with a frame.
+     */
+    abstract void onRelease(T frame);
+
+    /**
+     * Changes the backpressure strategy. This can only be called while the dispatcher is stopped.
+     *
+     * @param strategy One of {@link #KEEP_LATEST}, {@link #BOUNDED_QUEUE}, and {@link #BLOCK}.
+     * @param capacity The number of frames that can be pending. Ignored for
+     *                 {@link #KEEP_LATEST}.
+     */
+    void setStrategy(int strategy, int capacity) {
+        if (strategy != KEEP_LATEST && strategy != BOUNDED_QUEUE && strategy != BLOCK) {
+            throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+        if (strategy != KEEP_LATEST && capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mLock.lock();
+        try {
+            if (mRunning) {
+                throw new IllegalStateException("Cannot change the strategy while running.");
+            }
+            mStrategy = strategy;
+            mQueue = new Object[strategy == KEEP_LATEST ? 1 : capacity];
+            mHead = 0;
+            mCount = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int getStrategy() {
+        return mStrategy;
+    }
+
+    /**
+     * @return The maximum number of frames that can be pending.
+     */
+    int getCapacity() {
+        return mQueue.length;
+    }
+
+    /**
+     * Starts the consumer thread unless it is already running.
+     */
+    void start() {
+        mLock.lock();
+        try {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, mName);
+            mThread.start();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the consumer thread, releasing all the pending frames. This waits for the frame
+     * that is being delivered, if any.
+     */
+    void stop() {
+        final Thread thread;
+        mLock.lock();
+        try {
+            if (!mRunning) {
+                return;
+            }
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        if (thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (true) {
+            final T frame;
+            mLock.lock();
+            try {
+                if (mRunning) { // Restarted meanwhile; the new consumer takes over the queue
+                    break;
+                }
+                frame = poll();
+            } finally {
+                mLock.unlock();
+            }
+            if (frame == null) {
+                break;
+            }
+            onRelease(frame);
+        }
+    }
+
+    boolean isRunning() {
+        mLock.lock();
+        try {
+            return mRunning;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Offers a frame from the producer. Depending on the strategy, this drops a pending frame or
+     * waits while the queue is full.
+     *
+     * @param frame The frame.
+     * @return {@code true} if the frame was queued, {@code false} if it was released right away
+     * because the dispatcher is stopped.
+     */
+    boolean offer(T frame) {
+        T dropped = null;
+        mLock.lock();
+        try {
+            if (mRunning && mCount == mQueue.length) {
+                if (mStrategy == BLOCK) {
+                    while (mRunning && mCount == mQueue.length) {
+                        mNotFull.awaitUninterruptibly();
+                    }
+                } else {
+                    dropped = poll();
+                    mDroppedCount++;
+                }
+            }
+            if (mRunning) {
+                mQueue[(mHead + mCount) % mQueue.length] = frame;
+                mCount++;
+                mNotEmpty.signal();
+                frame = null;
+            }
+        } finally {
+            mLock.unlock();
+        }
+        if (dropped != null) {
+            onRelease(dropped);
+        }
+        if (frame != null) {
+            onRelease(frame);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of frames delivered to the consumer.
+     */
+    long getDeliveredCount() {
+        mLock.lock();
+        try {
+            return mDeliveredCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of frames dropped because the consumer was not fast enough.
+     */
+    long getDroppedCount() {
+        mLock.lock();
+        try {
+            return mDroppedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            final T frame;
+            mLock.lock();
+            try {
+                while (mRunning && mCount == 0) {
+                    mNotEmpty.awaitUninterruptibly();
+                }
+                if (!mRunning) {
+                    return;
+                }
+                frame = poll();
+                mDeliveredCount++;
+                mNotFull.signal();
+            } finally {
+                mLock.unlock();
+            }
+            try {
+                onDeliver(frame);
+            } finally {
+                onRelease(frame);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest frame from the queue. The caller must hold {@link #mLock}.
+     */
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        if (mCount == 0) {
+            return null;
+        }
+        final T frame = (T) mQueue[mHead];
+        mQueue[mHead] = null;
+        mHead = (mHead + 1) % mQueue.length;
+        mCount--;
+        return frame;
+    }
+
+}
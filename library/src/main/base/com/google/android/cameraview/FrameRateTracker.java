@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * <p>Measures the preview frame rate from frame timestamps.</p>
+ * <p>{@link #onFrame(long)} runs for every frame, so it only stores the interval in a ring and
+ * does not allocate. The statistics are computed when {@link #getMetrics()} is called. Both can be
+ * called from different threads.</p>
+ */
+class FrameRateTracker {
+
+    /**
+     * The number of intervals the rolling statistics cover; about two seconds at 30 fps.
+     */
+    static final int WINDOW = 64;
+
+    private static final long NO_FRAME = Long.MIN_VALUE;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long[] mIntervals = new long[WINDOW];
+
+    private int mNext;
+
+    private int mIntervalCount;
+
+    private long mLastTimestamp = NO_FRAME;
+
+    private long mFrameCount;
+
+    private long mDroppedFrameCount;
+
+    private int mMinTargetFrameRate;
+
+    private int mMaxTargetFrameRate;
+
+    /**
+     * Frames later than this many nanoseconds after the previous one count as dropped, or 0 if
+     * drops are not counted.
+     */
+    private long mDropThreshold;
+
+    /**
+     * The longest interval between frames that the target range allows, in nanoseconds.
+     */
+    private long mLongestInterval;
+
+    /**
+     * Records a frame.
+     *
+     * @param timestamp The timestamp of the frame in nanoseconds, on any monotonic clock.
+     */
+    synchronized void onFrame(long timestamp) {
+        final long last = mLastTimestamp;
+        mLastTimestamp = timestamp;
+        mFrameCount++;
+        if (last == NO_FRAME) {
+            return;
+        }
+        final long interval = timestamp - last;
+        if (interval <= 0) {
+            // The same frame twice, or a clock that went back.
+            return;
+        }
+        mIntervals[mNext] = interval;
+        mNext = (mNext + 1) % WINDOW;
+        if (mIntervalCount < WINDOW) {
+            mIntervalCount++;
+        }
+        if (mDropThreshold > 0 && interval > mDropThreshold) {
+            mDroppedFrameCount += (interval + mLongestInterval / 2) / mLongestInterval - 1;
+        }
+    }
+
+    /**
+     * Sets the frame rate range the camera targets, in frames per second.
+     */
+    synchronized void setTargetFrameRate(int min, int max) {
+        mMinTargetFrameRate = min;
+        mMaxTargetFrameRate = max;
+        if (min > 0) {
+            mLongestInterval = NANOS_PER_SECOND / min;
+            mDropThreshold = mLongestInterval * 3 / 2;
+        } else {
+            mLongestInterval = 0;
+            mDropThreshold = 0;
+        }
+    }
+
+    synchronized boolean hasTargetFrameRate() {
+        return mMinTargetFrameRate > 0;
+    }
+
+    /**
+     * Forgets all the frames and the target range, for example when the camera restarts.
+     */
+    synchronized void reset() {
+        mNext = 0;
+        mIntervalCount = 0;
+        mLastTimestamp = NO_FRAME;
+        mFrameCount = 0;
+        mDroppedFrameCount = 0;
+        setTargetFrameRate(0, 0);
+    }
+
+    /**
+     * Forgets the previous frame, so that a pause of the preview does not count as dropped frames,
+     * and the target range, which the camera may change along with the preview configuration.
+     */
+    synchronized void pause() {
+        mLastTimestamp = NO_FRAME;
+        setTargetFrameRate(0, 0);
+    }
+
+    synchronized PreviewMetrics getMetrics() {
+        final int count = mIntervalCount;
+        float frameRate = 0;
+        long jitter = 0;
+        if (count > 0) {
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += mIntervals[i];
+            }
+            final double mean = (double) sum / count;
+            double variance = 0;
+            for (int i = 0; i < count; i++) {
+                final double d = mIntervals[i] - mean;
+                variance += d * d;
+            }
+            frameRate = (float) (NANOS_PER_SECOND / mean);
+            jitter = Math.round(Math.sqrt(variance / count));
+        }
+        return new PreviewMetrics(frameRate, jitter, mFrameCount, mDroppedFrameCount,
+                mMinTargetFrameRate, mMaxTargetFrameRate);
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.SortedSet;
+
+/**
+ * <p>Remembers the last sizes chosen by a {@link SizeSelector}.</p>
+ * <p>Entries are keyed by the camera ID, the size table, the aspect ratio and the target size,
+ * which the camera implementations compute from the surface size and the display orientation.
+ * Size tables are immutable snapshots and are compared by identity, so repeated layout passes
+ * only compare a few fields.</p>
+ * <p>This class is thread-safe.</p>
+ */
+class MemoizedSizeSelector {
+
+    private static final int CAPACITY = 8;
+
+    private final SizeSelector mSelector;
+
+    private final Entry[] mEntries = new Entry[CAPACITY];
+
+    /**
+     * The next entry to be replaced, in round-robin order.
+     */
+    private int mNext;
+
+    private long mHitCount;
+
+    MemoizedSizeSelector(SizeSelector selector) {
+        if (selector == null) {
+            throw new NullPointerException("selector must not be null");
+        }
+        mSelector = selector;
+    }
+
+    SizeSelector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * @return The size chosen among the sizes of {@code ratio} in {@code sizes}, or {@code null}
+     * if there is none.
+     */
+    synchronized Size select(String cameraId, SizeMap sizes, AspectRatio ratio,
+            int width, int height) {
+        for (Entry entry : mEntries) {
+            if (entry != null && entry.matches(cameraId, sizes, ratio, width, height)) {
+                mHitCount++;
+                return entry.mResult;
+            }
+        }
+        final SortedSet<Size> candidates = sizes.sizes(ratio);
+        if (candidates == null) {
+            return null;
+        }
+        final Size result = mSelector.select(candidates, width, height);
+        if (!sizes.isImmutable()) { // It could change under the same identity
+            return result;
+        }
+        mEntries[mNext] = new Entry(cameraId, sizes, ratio, width, height, result);
+        mNext = (mNext + 1) % CAPACITY;
+        return result;
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    private static class Entry {
+
+        final String mCameraId;
+
+        final SizeMap mSizes;
+
+        final AspectRatio mRatio;
+
+        final int mWidth;
+
+        final int mHeight;
+
+        final Size mResult;
+
+        Entry(String cameraId, SizeMap sizes, AspectRatio ratio, int width, int height,
+                Size result) {
+            mCameraId = cameraId;
+            mSizes = sizes;
+            mRatio = ratio;
+            mWidth = width;
+            mHeight = height;
+            mResult = result;
+        }
+
+        boolean matches(String cameraId, SizeMap sizes, AspectRatio ratio, int width,
+                int height) {
+            return mSizes == sizes && mWidth == width && mHeight == height &&
+                    mRatio.equals(ratio) && mCameraId.equals(cameraId);
+        }
+
+    }
+
+}
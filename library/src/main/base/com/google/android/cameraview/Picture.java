@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A handle to the JPEG data of a taken picture.</p>
+ * <p>The data is not copied out of the camera; it stays in the buffer the camera wrote it to,
+ * and the buffer is handed back when the picture is released. A picture is only valid during
+ * the {@link CameraView.Callback#onPictureTaken(CameraView, Picture)} call, unless it is kept
+ * with {@link #retain()}. Every call to {@link #retain()} must be balanced with a call to
+ * {@link #close()}.</p>
+ */
+public class Picture implements Closeable {
+
+    private final ByteBuffer mBuffer;
+
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    private byte[] mBytes;
+
+    private int mBurstIndex;
+
+    private int mBurstCount = 1;
+
+    private int mRotation;
+
+    private CaptureTimeline mTimeline;
+
+    /**
+     * Creates a picture backed by {@code buffer}. Subclasses override {@link #onRelease()} to hand
+     * the buffer back to its owner.
+     *
+     * @param buffer The JPEG data, from its position to its limit.
+     */
+    Picture(ByteBuffer buffer) {
+        mBuffer = buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Creates a picture backed by an array that is not owned by anyone else.
+     *
+     * @param data The JPEG data.
+     */
+    Picture(byte[] data) {
+        this(ByteBuffer.wrap(data));
+        mBytes = data;
+    }
+
+    /**
+     * @return A new read-only view of the JPEG data. The view is only valid until this picture is
+     * released.
+     */
+    public ByteBuffer getBuffer() {
+        checkNotReleased();
+        return mBuffer.duplicate();
+    }
+
+    /**
+     * @return The size of the JPEG data in bytes.
+     */
+    public int getSize() {
+        return mBuffer.remaining();
+    }
+
+    /**
+     * Returns the JPEG data as an array. This copies the data unless the picture is already backed
+     * by an array of its own, and the copy is shared by all the callers.
+     *
+     * @return The JPEG data.
+     */
+    public synchronized byte[] getBytes() {
+        checkNotReleased();
+        if (mBytes == null) {
+            final ByteBuffer buffer = mBuffer.duplicate();
+            mBytes = new byte[buffer.remaining()];
+            buffer.get(mBytes);
+        }
+        return mBytes;
+    }
+
+    /**
+     * @return The position of this picture in its burst, starting at 0. This is always 0 for a
+     * picture taken with {@link CameraView#takePicture()}.
+     */
+    public int getBurstIndex() {
+        return mBurstIndex;
+    }
+
+    /**
+     * @return The number of pictures in the burst this picture belongs to. This is 1 for a
+     * picture taken with {@link CameraView#takePicture()}.
+     */
+    public int getBurstCount() {
+        return mBurstCount;
+    }
+
+    /**
+     * Marks this picture as the {@code index}-th of a burst of {@code count} pictures.
+     *
+     * @return This picture.
+     */
+    Picture setBurst(int index, int count) {
+        mBurstIndex = index;
+        mBurstCount = count;
+        return this;
+    }
+
+    /**
+     * <p>Returns the clockwise rotation that makes this picture upright when it is shown.</p>
+     * <p>This is the rotation that the EXIF orientation tag of the JPEG data asks for, after the
+     * tag is corrected for cameras that both turn the pixels and set the tag. It is 0 when the
+     * camera already turned the pixels upright. Honoring it, or the tag, is enough to show the
+     * picture upright; the data never needs to be decoded and encoded again for that.</p>
+     *
+     * @return One of 0, 90, 180, and 270.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * @param degrees The clockwise rotation that makes this picture upright.
+     * @return This picture.
+     */
+    Picture setRotation(int degrees) {
+        mRotation = degrees;
+        return this;
+    }
+
+    /**
+     * @return The timings of the steps this picture went through, or {@code null} if they are not
+     * recorded.
+     */
+    public CaptureTimeline getTimeline() {
+        return mTimeline;
+    }
+
+    /**
+     * Attaches the timings of this picture, and takes the burst position from them. Nothing
+     * changes if {@code timeline} is {@code null}.
+     *
+     * @return This picture.
+     */
+    Picture setTimeline(CaptureTimeline timeline) {
+        if (timeline == null) {
+            return this;
+        }
+        mTimeline = timeline;
+        return setBurst(timeline.getBurstIndex(), timeline.getBurstCount());
+    }
+
+    /**
+     * Keeps this picture valid after the callback returns.
+     *
+     * @return This picture.
+     * @throws IllegalStateException when the picture is already released.
+     */
+    public Picture retain() {
+        while (true) {
+            final int references = mReferences.get();
+            if (references <= 0) {
+                throw new IllegalStateException("The picture is already released.");
+            }
+            if (mReferences.compareAndSet(references, references + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to this picture. The underlying buffer is handed back when the last
+     * reference is released.
+     */
+    @Override
+    public void close() {
+        if (mReferences.decrementAndGet() == 0) {
+            onRelease();
+        }
+    }
+
+    /**
+     * @return {@code true} if this picture has been released and its data is not accessible
+     * anymore.
+     */
+    public boolean isReleased() {
+        return mReferences.get() <= 0;
+    }
+
+    /**
+     * Called when the last reference to this picture is released.
+     */
+    void onRelease() {
+    }
+
+    private void checkNotReleased() {
+        if (isReleased()) {
+            throw new IllegalStateException("The picture is already released.");
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Writes pictures to storage on a background thread, straight from their buffers.</p>
+ * <p>The JPEG data is written through a {@link java.nio.channels.FileChannel} from the buffer
+ * the camera filled, without a copy on the Java heap. Pictures are written one at a time, in the
+ * order they are saved, and at most {@code capacity} of them wait in the queue; when the queue is
+ * full, a picture is rejected instead of making the camera wait for the storage.</p>
+ * <p>A picture saved to a {@link File} is written to a temporary file next to it, synced, and
+ * renamed, so that the file either does not exist or is complete. The syncs of the pictures of a
+ * burst are deferred until its last picture is written, so that they are written back to back. A
+ * burst whose last picture never comes is synced along with the next picture, or when the saver
+ * is closed.</p>
+ *
+ * @see CameraView#takePicture(File, Callback)
+ * @see CameraView#takeBurst(File[], Callback)
+ */
+public class PictureSaver implements Closeable {
+
+    /**
+     * Receives the results of {@link PictureSaver}.
+     */
+    public interface Callback {
+
+        /**
+         * Called when a picture is saved.
+         *
+         * @param file    The file, or {@code null} if the picture was written to a stream or a
+         *                file descriptor.
+         * @param size    The number of bytes written.
+         * @param latency The time from the request to save the picture to its completion, in
+         *                nanoseconds.
+         */
+        void onPictureSaved(File file, long size, long latency);
+
+        /**
+         * Called when a picture cannot be saved. Nothing is left at the destination file.
+         *
+         * @param file The file, or {@code null} if the picture was written to a stream or a file
+         *             descriptor.
+         * @param e    The cause.
+         */
+        void onSaveFailed(File file, IOException e);
+
+    }
+
+    /**
+     * Where a picture taken with {@link CameraView#takePicture(File, Callback)} or its variants
+     * goes.
+     */
+    interface Destination {
+
+        void save(PictureSaver saver, Picture picture);
+
+    }
+
+    static final int DEFAULT_CAPACITY = 8;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * The files written but not synced yet. This is only accessed on the saver thread.
+     */
+    private final ArrayList<PendingFile> mPendingFiles = new ArrayList<>();
+
+    /**
+     * The number of pictures that are saved but whose callbacks are not called yet.
+     */
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+
+    private long mSavedCount;
+
+    private long mTotalLatency;
+
+    public PictureSaver() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of pictures that can wait to be written.
+     */
+    public PictureSaver(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "PictureSaver");
+                    }
+                });
+        // The thread only lives while there is something to save.
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Saves {@code picture} to {@code file}. The picture is retained until it is written.
+     *
+     * @param callback Called on the saver thread when the file is complete, or on this thread if
+     *                 the queue is full.
+     */
+    public void save(Picture picture, File file, Callback callback) {
+        submit(picture, file, null, null, callback);
+    }
+
+    /**
+     * Writes {@code picture} to {@code out}. The stream is neither flushed to storage nor closed.
+     *
+     * @param callback Called on the saver thread when the picture is written, or on this thread
+     *                 if the queue is full.
+     */
+    public void save(Picture picture, OutputStream out, Callback callback) {
+        submit(picture, null, out, null, callback);
+    }
+
+    /**
+     * Writes {@code picture} to {@code fd} at its current position. The descriptor is not closed.
+     *
+     * @param callback Called on the saver thread when the picture is written, or on this thread
+     *                 if the queue is full.
+     */
+    public void save(Picture picture, FileDescriptor fd, Callback callback) {
+        submit(picture, null, null, fd, callback);
+    }
+
+    /**
+     * @return The number of pictures that are waiting to be written, being written, or waiting to
+     * be synced.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * @return The average time from the request to save a picture to its completion, in
+     * nanoseconds, or 0 if nothing is saved yet.
+     */
+    public synchronized long getAverageLatency() {
+        return mSavedCount == 0 ? 0 : mTotalLatency / mSavedCount;
+    }
+
+    /**
+     * Stops accepting pictures. The pictures in the queue are still saved.
+     */
+    @Override
+    public void close() {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    syncPendingFiles();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The last picture in the queue syncs them once it sees the saver closed.
+        }
+        mExecutor.shutdown();
+    }
+
+    private void submit(final Picture picture, final File file, final OutputStream out,
+            final FileDescriptor fd, final Callback callback) {
+        final long start = System.nanoTime();
+        picture.retain();
+        mQueueDepth.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (file != null) {
+                        writeFile(picture, file, start, callback);
+                    } else {
+                        writeStream(picture, out, fd, start, callback);
+                    }
+                    final boolean lastOfBurst =
+                            picture.getBurstIndex() == picture.getBurstCount() - 1;
+                    if (lastOfBurst ||
+                            (mExecutor.isShutdown() && mExecutor.getQueue().isEmpty())) {
+                        syncPendingFiles();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mQueueDepth.decrementAndGet();
+            picture.close();
+            callback.onSaveFailed(file, new IOException(mExecutor.isShutdown() ?
+                    "The saver is closed." : "Too many pictures are waiting to be saved."));
+        }
+    }
+
+    /**
+     * Writes {@code picture} to a temporary file, and leaves it open in {@link #mPendingFiles}
+     * to be synced later.
+     */
+    void writeFile(Picture picture, File file, long start, Callback callback) {
+        File temp = null;
+        FileOutputStream out = null;
+        IOException error = null;
+        try {
+            // A unique name, so that saving the same file twice in a row does not truncate the
+            // first temporary file while it waits to be synced.
+            temp = File.createTempFile("." + file.getName() + ".", TEMP_SUFFIX,
+                    file.getAbsoluteFile().getParentFile());
+            out = new FileOutputStream(temp);
+            final long size = write(picture, out.getChannel());
+            mPendingFiles.add(new PendingFile(out, temp, file, size, start, callback));
+        } catch (IOException e) {
+            closeQuietly(out);
+            if (temp != null) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+            error = e;
+        } finally {
+            // Released before the callback so that the camera gets its buffer back first.
+            picture.close();
+        }
+        if (error != null) {
+            finish(start, false);
+            callback.onSaveFailed(file, error);
+        }
+    }
+
+    void writeStream(Picture picture, OutputStream out, FileDescriptor fd, long start,
+            Callback callback) {
+        long size = 0;
+        IOException error = null;
+        try {
+            final WritableByteChannel channel;
+            if (fd != null) {
+                // The stream does not own the descriptor, so it is not closed.
+                channel = new FileOutputStream(fd).getChannel();
+            } else if (out instanceof FileOutputStream) {
+                channel = ((FileOutputStream) out).getChannel();
+            } else {
+                channel = Channels.newChannel(out);
+            }
+            size = write(picture, channel);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            picture.close();
+        }
+        finish(start, error == null);
+        if (error == null) {
+            callback.onPictureSaved(null, size, System.nanoTime() - start);
+        } else {
+            callback.onSaveFailed(null, error);
+        }
+    }
+
+    /**
+     * Syncs, closes, and renames all the files in {@link #mPendingFiles}, then reports them.
+     */
+    void syncPendingFiles() {
+        for (PendingFile pending : mPendingFiles) {
+            try {
+                pending.mOut.getFD().sync();
+                pending.mOut.close();
+                if (!pending.mTemp.renameTo(pending.mFile)) {
+                    throw new IOException("Cannot rename " + pending.mTemp + " to " +
+                            pending.mFile);
+                }
+                finish(pending.mStart, true);
+                pending.mCallback.onPictureSaved(pending.mFile, pending.mSize,
+                        System.nanoTime() - pending.mStart);
+            } catch (IOException e) {
+                closeQuietly(pending.mOut);
+                //noinspection ResultOfMethodCallIgnored
+                pending.mTemp.delete();
+                finish(pending.mStart, false);
+                pending.mCallback.onSaveFailed(pending.mFile, e);
+            }
+        }
+        mPendingFiles.clear();
+    }
+
+    private synchronized void finish(long start, boolean saved) {
+        mQueueDepth.decrementAndGet();
+        if (saved) {
+            mSavedCount++;
+            mTotalLatency += System.nanoTime() - start;
+        }
+    }
+
+    private static long write(Picture picture, WritableByteChannel channel) throws IOException {
+        final ByteBuffer buffer = picture.getBuffer();
+        final long size = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return size;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static class PendingFile {
+
+        final FileOutputStream mOut;
+
+        final File mTemp;
+
+        final File mFile;
+
+        final long mSize;
+
+        final long mStart;
+
+        final Callback mCallback;
+
+        PendingFile(FileOutputStream out, File temp, File file, long size, long start,
+                Callback callback) {
+            mOut = out;
+            mTemp = temp;
+            mFile = file;
+            mSize = size;
+            mStart = start;
+            mCallback = callback;
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.io.OutputStream;
+
+/**
+ * <p>An {@link OutputStream} that writes into arrays of a {@link BufferPool}. When the array is
+ * full, a larger one is acquired and the full one goes back to the pool.</p>
+ * <p>The stream can start writing at an offset, so that a header can be put in front of the
+ * data afterwards without copying it.</p>
+ */
+class PooledOutputStream extends OutputStream {
+
+    private final BufferPool mPool;
+
+    private byte[] mBuffer;
+
+    private int mCount;
+
+    /**
+     * @param pool     The pool of the arrays.
+     * @param capacity The expected size of the data, including {@code offset}.
+     * @param offset   The number of bytes to leave in front of the data.
+     */
+    PooledOutputStream(BufferPool pool, int capacity, int offset) {
+        mPool = pool;
+        mBuffer = pool.acquire(Math.max(capacity, offset));
+        mCount = offset;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mCount + 1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(mCount + len);
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    /**
+     * @return The array holding the data. It belongs to the caller, who hands it back to the
+     * pool when it is done with it.
+     */
+    byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return The end of the data in {@link #getBuffer()}, including the offset.
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length) {
+            return;
+        }
+        final byte[] buffer = mPool.acquire(Math.max(capacity, mBuffer.length * 2));
+        System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+        mPool.release(mBuffer);
+        mBuffer = buffer;
+    }
+
+}
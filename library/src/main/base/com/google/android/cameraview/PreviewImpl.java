@@ -28,6 +28,13 @@ abstract class PreviewImpl {
 
     interface Callback {
         void onSurfaceChanged();
+
+        /**
+         * Called when a frame is displayed, by the previews that know it.
+         *
+         * @param timestamp The timestamp of the frame in nanoseconds.
+         */
+        void onFrame(long timestamp);
     }
 
     private Callback mCallback;
@@ -54,6 +61,10 @@ abstract class PreviewImpl {
         mCallback.onSurfaceChanged();
     }
 
+    protected void dispatchFrame(long timestamp) {
+        mCallback.onFrame(timestamp);
+    }
+
     SurfaceHolder getSurfaceHolder() {
         return null;
     }
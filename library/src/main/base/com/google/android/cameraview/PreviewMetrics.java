@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * <p>A snapshot of the preview frame rate, taken with {@link CameraView#getPreviewMetrics()}.</p>
+ * <p>The rate and the jitter cover the most recent frames only, so that they follow changes such
+ * as the auto-exposure slowing down in low light. The counts cover everything since the camera was
+ * started.</p>
+ */
+public class PreviewMetrics {
+
+    private final float mFrameRate;
+
+    private final long mJitter;
+
+    private final long mFrameCount;
+
+    private final long mDroppedFrameCount;
+
+    private final int mMinTargetFrameRate;
+
+    private final int mMaxTargetFrameRate;
+
+    PreviewMetrics(float frameRate, long jitter, long frameCount, long droppedFrameCount,
+            int minTargetFrameRate, int maxTargetFrameRate) {
+        mFrameRate = frameRate;
+        mJitter = jitter;
+        mFrameCount = frameCount;
+        mDroppedFrameCount = droppedFrameCount;
+        mMinTargetFrameRate = minTargetFrameRate;
+        mMaxTargetFrameRate = maxTargetFrameRate;
+    }
+
+    /**
+     * @return The rolling preview frame rate in frames per second, or 0 if there are not enough
+     * frames yet.
+     */
+    public float getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * @return The standard deviation of the recent intervals between frames, in nanoseconds.
+     */
+    public long getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * @return The number of preview frames since the camera was started.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The estimated number of frames that were dropped since the camera was started. A
+     * frame counts as dropped when it comes later than the slowest frame rate of the target range
+     * allows. This is 0 while the target range is unknown.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * @return The lower bound of the frame rate range the camera targets, or 0 if it is unknown.
+     */
+    public int getMinTargetFrameRate() {
+        return mMinTargetFrameRate;
+    }
+
+    /**
+     * @return The upper bound of the frame rate range the camera targets, or 0 if it is unknown.
+     */
+    public int getMaxTargetFrameRate() {
+        return mMaxTargetFrameRate;
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewMetrics{fps=" + mFrameRate + ", jitter=" + mJitter / 1000 + "us, frames="
+                + mFrameCount + ", dropped=" + mDroppedFrameCount + ", target=["
+                + mMinTargetFrameRate + ", " + mMaxTargetFrameRate + "]}";
+    }
+
+}
@@ -16,18 +16,73 @@
 
 package com.google.android.cameraview;
 
-import android.support.v4.util.ArrayMap;
+import android.support.annotation.NonNull;
 
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
- * A collection class that automatically groups {@link Size}s by their {@link AspectRatio}s.
+ * <p>A collection class that automatically groups {@link Size}s by their {@link AspectRatio}s.</p>
+ * <p>Sizes are packed into {@code long}s, with the width in the upper 32 bits, and kept in a
+ * sorted array per reduced aspect ratio. Within one aspect ratio, this order is also the order
+ * of the areas, so lookups are binary searches. While the map is mutable, the arrays grow in
+ * place with spare capacity; {@link #snapshot()} trims them into exact copies that its views
+ * share.</p>
+ * <p>A map is not thread-safe while it is modified. Snapshots are immutable, and can be shared
+ * across threads.</p>
  */
 class SizeMap {
 
-    private final ArrayMap<AspectRatio, SortedSet<Size>> mRatios = new ArrayMap<>();
+    private static final long[] EMPTY_KEYS = new long[0];
+
+    private static final long[][] EMPTY_SIZES = new long[0][];
+
+    private static final int[] EMPTY_COUNTS = new int[0];
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final boolean mImmutable;
+
+    /**
+     * The reduced aspect ratios, packed as {@code x << 32 | y}, in ascending order. Only the
+     * first {@link #mKeyCount} elements are used.
+     */
+    private long[] mKeys;
+
+    private int mKeyCount;
+
+    /**
+     * The sizes of each aspect ratio in {@link #mKeys}, in ascending order. Only the first
+     * {@code mSizeCounts[i]} elements of {@code mSizes[i]} are used.
+     */
+    private long[][] mSizes;
+
+    private int[] mSizeCounts;
+
+    /**
+     * The view returned by {@link #ratios()}, dropped whenever the ratios change.
+     */
+    private Set<AspectRatio> mRatios;
+
+    SizeMap() {
+        this(EMPTY_KEYS, EMPTY_SIZES, EMPTY_COUNTS, 0, false);
+    }
+
+    private SizeMap(long[] keys, long[][] sizes, int[] sizeCounts, int keyCount,
+            boolean immutable) {
+        mKeys = keys;
+        mSizes = sizes;
+        mSizeCounts = sizeCounts;
+        mKeyCount = keyCount;
+        mImmutable = immutable;
+    }
 
     /**
      * Add a new {@link Size} to this collection.
@@ -36,21 +91,53 @@ class SizeMap {
      * @return {@code true} if it is added, {@code false} if it already exists and is not added.
      */
     public boolean add(Size size) {
-        for (AspectRatio ratio : mRatios.keySet()) {
-            if (ratio.matches(size)) {
-                final SortedSet<Size> sizes = mRatios.get(ratio);
-                if (sizes.contains(size)) {
-                    return false;
-                } else {
-                    sizes.add(size);
-                    return true;
-                }
+        return add(size.getWidth(), size.getHeight());
+    }
+
+    /**
+     * Same as {@link #add(Size)}, without a {@link Size} instance.
+     */
+    boolean add(int width, int height) {
+        checkMutable();
+        final int gcd = gcd(width, height);
+        final long key = pack(width / gcd, height / gcd);
+        final long size = pack(width, height);
+        int index = Arrays.binarySearch(mKeys, 0, mKeyCount, key);
+        if (index < 0) {
+            // None of the existing ratio matches the provided size; add a new key
+            index = -index - 1;
+            if (mKeyCount == mKeys.length) {
+                final int capacity = grow(mKeyCount);
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mSizes = Arrays.copyOf(mSizes, capacity);
+                mSizeCounts = Arrays.copyOf(mSizeCounts, capacity);
             }
+            final int moved = mKeyCount - index;
+            System.arraycopy(mKeys, index, mKeys, index + 1, moved);
+            System.arraycopy(mSizes, index, mSizes, index + 1, moved);
+            System.arraycopy(mSizeCounts, index, mSizeCounts, index + 1, moved);
+            mKeys[index] = key;
+            mSizes[index] = new long[INITIAL_CAPACITY];
+            mSizes[index][0] = size;
+            mSizeCounts[index] = 1;
+            mKeyCount++;
+            mRatios = null;
+            return true;
+        }
+        long[] sizes = mSizes[index];
+        final int count = mSizeCounts[index];
+        int position = Arrays.binarySearch(sizes, 0, count, size);
+        if (position >= 0) {
+            return false;
         }
-        // None of the existing ratio matches the provided size; add a new key
-        SortedSet<Size> sizes = new TreeSet<>();
-        sizes.add(size);
-        mRatios.put(AspectRatio.of(size.getWidth(), size.getHeight()), sizes);
+        position = -position - 1;
+        if (count == sizes.length) {
+            sizes = Arrays.copyOf(sizes, grow(count));
+            mSizes[index] = sizes;
+        }
+        System.arraycopy(sizes, position, sizes, position + 1, count - position);
+        sizes[position] = size;
+        mSizeCounts[index] = count + 1;
         return true;
     }
 
@@ -60,23 +147,298 @@ class SizeMap {
      * @param ratio The aspect ratio to be removed.
      */
     public void remove(AspectRatio ratio) {
-        mRatios.remove(ratio);
+        checkMutable();
+        final int index = indexOf(ratio);
+        if (index < 0) {
+            return;
+        }
+        final int moved = mKeyCount - index - 1;
+        System.arraycopy(mKeys, index + 1, mKeys, index, moved);
+        System.arraycopy(mSizes, index + 1, mSizes, index, moved);
+        System.arraycopy(mSizeCounts, index + 1, mSizeCounts, index, moved);
+        mKeyCount--;
+        mSizes[mKeyCount] = null;
+        mRatios = null;
     }
 
+    /**
+     * @return The aspect ratios, as an unmodifiable set that is not affected by later changes.
+     */
     Set<AspectRatio> ratios() {
-        return mRatios.keySet();
+        if (mRatios == null) {
+            final Set<AspectRatio> ratios = new LinkedHashSet<>();
+            for (int i = 0; i < mKeyCount; i++) {
+                ratios.add(AspectRatio.of(unpackWidth(mKeys[i]), unpackHeight(mKeys[i])));
+            }
+            mRatios = Collections.unmodifiableSet(ratios);
+        }
+        return mRatios;
     }
 
+    /**
+     * @return The sizes of {@code ratio}, as an unmodifiable set that is not affected by later
+     * changes, or {@code null} if there is none.
+     */
     SortedSet<Size> sizes(AspectRatio ratio) {
-        return mRatios.get(ratio);
+        final int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        final int count = mSizeCounts[index];
+        // A snapshot never changes, so only a mutable map needs to copy its sizes here.
+        final long[] sizes = mImmutable ? mSizes[index] : Arrays.copyOf(mSizes[index], count);
+        return new PackedSizes(sizes, 0, count);
+    }
+
+    /**
+     * Finds the smallest size of {@code ratio} that is at least {@code width} wide and
+     * {@code height} high, in O(log n).
+     *
+     * @return The size, or {@code null} if there is none.
+     */
+    Size ceiling(AspectRatio ratio, int width, int height) {
+        final int index = indexOf(ratio);
+        if (index < 0) {
+            return null;
+        }
+        final long[] sizes = mSizes[index];
+        final int count = mSizeCounts[index];
+        // Both the widths and the heights grow along the array.
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            final long size = sizes[mid];
+            if (unpackWidth(size) >= width && unpackHeight(size) >= height) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low == count ? null : unpack(sizes[low]);
+    }
+
+    /**
+     * @return The largest size of {@code ratio}, or {@code null} if there is none.
+     */
+    Size largest(AspectRatio ratio) {
+        final int index = indexOf(ratio);
+        return index < 0 ? null : unpack(mSizes[index][mSizeCounts[index] - 1]);
+    }
+
+    /**
+     * @return An immutable copy of this map, or this map itself if it is already a snapshot.
+     */
+    SizeMap snapshot() {
+        if (mImmutable) {
+            return this;
+        }
+        final long[][] sizes = new long[mKeyCount][];
+        for (int i = 0; i < mKeyCount; i++) {
+            sizes[i] = Arrays.copyOf(mSizes[i], mSizeCounts[i]);
+        }
+        return new SizeMap(Arrays.copyOf(mKeys, mKeyCount), sizes,
+                Arrays.copyOf(mSizeCounts, mKeyCount), mKeyCount, true);
+    }
+
+    boolean isImmutable() {
+        return mImmutable;
+    }
+
+    /**
+     * @return All the sizes, packed with the width in the upper 32 bits, in ascending order.
+     */
+    long[] pack() {
+        int count = 0;
+        for (int i = 0; i < mKeyCount; i++) {
+            count += mSizeCounts[i];
+        }
+        final long[] packed = new long[count];
+        int offset = 0;
+        for (int i = 0; i < mKeyCount; i++) {
+            System.arraycopy(mSizes[i], 0, packed, offset, mSizeCounts[i]);
+            offset += mSizeCounts[i];
+        }
+        Arrays.sort(packed);
+        return packed;
     }
 
     void clear() {
-        mRatios.clear();
+        checkMutable();
+        Arrays.fill(mSizes, 0, mKeyCount, null);
+        mKeyCount = 0;
+        mRatios = null;
     }
 
     boolean isEmpty() {
-        return mRatios.isEmpty();
+        return mKeyCount == 0;
+    }
+
+    /**
+     * @return The index of {@code ratio} in {@link #mKeys}, or a negative value if there is none.
+     */
+    private int indexOf(AspectRatio ratio) {
+        if (ratio == null) {
+            return -1;
+        }
+        return Arrays.binarySearch(mKeys, 0, mKeyCount, pack(ratio.getX(), ratio.getY()));
+    }
+
+    private void checkMutable() {
+        if (mImmutable) {
+            throw new UnsupportedOperationException("This SizeMap is a snapshot.");
+        }
+    }
+
+    private static int grow(int capacity) {
+        return Math.max(INITIAL_CAPACITY, capacity * 2);
+    }
+
+    static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    static int unpackWidth(long size) {
+        return (int) (size >>> 32);
+    }
+
+    static int unpackHeight(long size) {
+        return (int) size;
+    }
+
+    static Size unpack(long size) {
+        return new Size(unpackWidth(size), unpackHeight(size));
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int c = b;
+            b = a % b;
+            a = c;
+        }
+        return a;
+    }
+
+    /**
+     * A read-only view of a range of a packed size array of one aspect ratio.
+     */
+    private static class PackedSizes extends AbstractSet<Size> implements SortedSet<Size> {
+
+        private final long[] mSizes;
+
+        private final int mFrom;
+
+        private final int mTo;
+
+        PackedSizes(long[] sizes, int from, int to) {
+            mSizes = sizes;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        public int size() {
+            return mTo - mFrom;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Size)) {
+                return false;
+            }
+            final Size size = (Size) o;
+            return Arrays.binarySearch(mSizes, mFrom, mTo,
+                    pack(size.getWidth(), size.getHeight())) >= 0;
+        }
+
+        @NonNull
+        @Override
+        public Iterator<Size> iterator() {
+            return new Iterator<Size>() {
+
+                private int mIndex = mFrom;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mTo;
+                }
+
+                @Override
+                public Size next() {
+                    if (mIndex >= mTo) {
+                        throw new NoSuchElementException();
+                    }
+                    return unpack(mSizes[mIndex++]);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+            };
+        }
+
+        @Override
+        public Comparator<? super Size> comparator() {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public SortedSet<Size> subSet(Size fromElement, Size toElement) {
+            final int from = Math.max(mFrom, indexOf(fromElement));
+            return new PackedSizes(mSizes, from, Math.max(from, indexOf(toElement)));
+        }
+
+        @NonNull
+        @Override
+        public SortedSet<Size> headSet(Size toElement) {
+            return new PackedSizes(mSizes, mFrom, Math.max(mFrom, indexOf(toElement)));
+        }
+
+        @NonNull
+        @Override
+        public SortedSet<Size> tailSet(Size fromElement) {
+            return new PackedSizes(mSizes, Math.max(mFrom, indexOf(fromElement)), mTo);
+        }
+
+        @Override
+        public Size first() {
+            if (mFrom == mTo) {
+                throw new NoSuchElementException();
+            }
+            return unpack(mSizes[mFrom]);
+        }
+
+        @Override
+        public Size last() {
+            if (mFrom == mTo) {
+                throw new NoSuchElementException();
+            }
+            return unpack(mSizes[mTo - 1]);
+        }
+
+        /**
+         * @return The index of the first size in this range that is not smaller than
+         * {@code size}, as ordered by {@link Size#compareTo(Size)}.
+         */
+        private int indexOf(Size size) {
+            final long area = (long) size.getWidth() * size.getHeight();
+            int low = mFrom;
+            int high = mTo;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final long s = mSizes[mid];
+                if ((long) unpackWidth(s) * unpackHeight(s) >= area) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
     }
 
 }
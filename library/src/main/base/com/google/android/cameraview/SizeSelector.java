@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.SortedSet;
+
+/**
+ * <p>Chooses a preview or picture size among the sizes that the camera supports in the current
+ * aspect ratio.</p>
+ * <p>Results are memoized per camera, aspect ratio and target, so a selector must always return
+ * the same size for the same arguments.</p>
+ *
+ * @see CameraView#setPreviewSizeSelector(SizeSelector)
+ * @see CameraView#setPictureSizeSelector(SizeSelector)
+ */
+public abstract class SizeSelector {
+
+    /**
+     * <p>Chooses a size.</p>
+     * <p>The target is the size of the preview surface when choosing a preview size, and the
+     * chosen preview size when choosing a picture size. It is in the orientation of the camera
+     * sensor.</p>
+     *
+     * @param sizes  The candidates, all of the same aspect ratio, from the smallest to the
+     *               largest. There is at least one.
+     * @param width  The width of the target.
+     * @param height The height of the target.
+     * @return One of {@code sizes}.
+     */
+    public abstract Size select(SortedSet<Size> sizes, int width, int height);
+
+    /**
+     * @return A selector that picks the smallest size that covers the target, or the largest
+     * size if none does. This is the default for previews.
+     */
+    public static SizeSelector smallestCovering() {
+        return SMALLEST_COVERING;
+    }
+
+    /**
+     * @return A selector that picks the largest size. This is the default for pictures.
+     */
+    public static SizeSelector largest() {
+        return LARGEST;
+    }
+
+    /**
+     * @param pixels The number of pixels to aim for.
+     * @return A selector that picks the size whose area is the closest to {@code pixels}.
+     */
+    public static SizeSelector closestTo(final long pixels) {
+        return new SizeSelector() {
+            @Override
+            public Size select(SortedSet<Size> sizes, int width, int height) {
+                Size closest = null;
+                long closestDistance = Long.MAX_VALUE;
+                for (Size size : sizes) {
+                    final long distance = Math.abs(area(size) - pixels);
+                    if (distance < closestDistance) {
+                        closest = size;
+                        closestDistance = distance;
+                    }
+                }
+                return closest;
+            }
+        };
+    }
+
+    /**
+     * @param maxBytes      The memory budget of one image.
+     * @param bytesPerPixel The size of a pixel in the decoded image, for example 4 for
+     *                      {@link android.graphics.Bitmap.Config#ARGB_8888}.
+     * @return A selector that picks the largest size whose decoded image fits in
+     * {@code maxBytes}, or the smallest size if none does.
+     */
+    public static SizeSelector maxUnderMemory(final long maxBytes, final int bytesPerPixel) {
+        return new SizeSelector() {
+            @Override
+            public Size select(SortedSet<Size> sizes, int width, int height) {
+                Size chosen = sizes.first();
+                for (Size size : sizes) {
+                    if (area(size) * bytesPerPixel > maxBytes) {
+                        break;
+                    }
+                    chosen = size;
+                }
+                return chosen;
+            }
+        };
+    }
+
+    private static final SizeSelector SMALLEST_COVERING = new SizeSelector() {
+        @Override
+        public Size select(SortedSet<Size> sizes, int width, int height) {
+            for (Size size : sizes) { // Iterate from small to large
+                if (size.getWidth() >= width && size.getHeight() >= height) {
+                    return size;
+                }
+            }
+            return sizes.last();
+        }
+    };
+
+    private static final SizeSelector LARGEST = new SizeSelector() {
+        @Override
+        public Size select(SortedSet<Size> sizes, int width, int height) {
+            return sizes.last();
+        }
+    };
+
+    static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+
+/**
+ * <p>The monotonic timestamps of the steps from {@link CameraView#start()} to the first preview
+ * frame.</p>
+ * <p>Times come from {@link System#nanoTime()}. Each step is recorded once per start, at its first
+ * occurrence; later reconfigurations of the same camera do not move them. Steps that an
+ * implementation does not go through are not recorded; see {@link #hasEvent(int)}.</p>
+ */
+public class StartupTimeline {
+
+    /** {@link CameraView#start()} was called, or the facing was switched. */
+    public static final int EVENT_STARTED = 0;
+
+    /** The camera of the requested facing was found. */
+    public static final int EVENT_CAMERA_CHOSEN = 1;
+
+    /** The characteristics or the parameters of the camera were read. */
+    public static final int EVENT_CHARACTERISTICS_READ = 2;
+
+    /** The camera was requested to open. */
+    public static final int EVENT_OPEN_REQUESTED = 3;
+
+    /** The camera was opened. */
+    public static final int EVENT_OPENED = 4;
+
+    /**
+     * The camera was requested to be configured; the capture session was requested with Camera2,
+     * and the parameters were being set with Camera1.
+     */
+    public static final int EVENT_CONFIGURE_REQUESTED = 5;
+
+    /** The capture session was configured, or the parameters were set. */
+    public static final int EVENT_CONFIGURED = 6;
+
+    /** The preview was started. */
+    public static final int EVENT_PREVIEW_STARTED = 7;
+
+    /** The first preview frame arrived. */
+    public static final int EVENT_FIRST_FRAME = 8;
+
+    static final int EVENT_COUNT = 9;
+
+    private static final String[] EVENT_NAMES = {
+            "started",
+            "camera_chosen",
+            "characteristics_read",
+            "open_requested",
+            "opened",
+            "configure_requested",
+            "configured",
+            "preview_started",
+            "first_frame",
+    };
+
+    private static final long NOT_RECORDED = Long.MIN_VALUE;
+
+    private final long[] mTimes = new long[EVENT_COUNT];
+
+    private StartupTimeline() {
+        Arrays.fill(mTimes, NOT_RECORDED);
+    }
+
+    /**
+     * @return A new timeline marked with {@link #EVENT_STARTED} at the current time.
+     */
+    static StartupTimeline start() {
+        final StartupTimeline timeline = new StartupTimeline();
+        timeline.mark(EVENT_STARTED);
+        return timeline;
+    }
+
+    /**
+     * Records {@code event} at the current time, unless it is already recorded.
+     *
+     * @return {@code true} if the event is recorded by this call.
+     */
+    boolean mark(int event) {
+        return mark(event, System.nanoTime());
+    }
+
+    synchronized boolean mark(int event, long time) {
+        if (mTimes[event] != NOT_RECORDED) {
+            return false;
+        }
+        mTimes[event] = time;
+        return true;
+    }
+
+    /**
+     * @param event One of the {@code EVENT_} constants.
+     * @return {@code true} if the start went through {@code event}.
+     */
+    public synchronized boolean hasEvent(int event) {
+        return mTimes[event] != NOT_RECORDED;
+    }
+
+    /**
+     * @param event One of the {@code EVENT_} constants.
+     * @return The time of {@code event} in nanoseconds, on the {@link System#nanoTime()} clock.
+     * @throws IllegalStateException when the event is not recorded.
+     */
+    public synchronized long getTime(int event) {
+        if (!hasEvent(event)) {
+            throw new IllegalStateException("Not recorded: " + EVENT_NAMES[event]);
+        }
+        return mTimes[event];
+    }
+
+    /**
+     * @return The time from {@code from} to {@code to} in nanoseconds, or -1 if either of them is
+     * not recorded.
+     */
+    public synchronized long getDuration(int from, int to) {
+        if (!hasEvent(from) || !hasEvent(to)) {
+            return -1;
+        }
+        return mTimes[to] - mTimes[from];
+    }
+
+    /**
+     * @return The time from {@link #EVENT_STARTED} to {@link #EVENT_FIRST_FRAME} in nanoseconds,
+     * or -1 if no frame arrived yet.
+     */
+    public long getTimeToFirstFrame() {
+        return getDuration(EVENT_STARTED, EVENT_FIRST_FRAME);
+    }
+
+    /**
+     * @return The name of {@code event}, such as {@code "opened"}.
+     */
+    public static String getEventName(int event) {
+        return EVENT_NAMES[event];
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("StartupTimeline{");
+        boolean first = true;
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            if (hasEvent(event)) {
+                if (!first) {
+                    builder.append(", ");
+                }
+                first = false;
+                builder.append(EVENT_NAMES[event]).append("=+")
+                        .append((mTimes[event] - mTimes[EVENT_STARTED]) / 1000000).append("ms");
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Decodes small thumbnails of pictures on a background thread.</p>
+ * <p>When the EXIF metadata of a picture embeds a thumbnail that is large enough, only that
+ * thumbnail is decoded. Otherwise, the bounds of the picture are read first, and the picture is
+ * decoded with the largest power-of-two {@link BitmapFactory.Options#inSampleSize} that keeps
+ * it at least as large as the requested size. The EXIF orientation is not applied.</p>
+ * <p>Thumbnails handed back with {@link #recycle(Bitmap)} are reused as
+ * {@link BitmapFactory.Options#inBitmap} for the next ones on API 19 and above.</p>
+ *
+ * @see CameraView#setThumbnailSize(int)
+ */
+public class ThumbnailGenerator implements Closeable {
+
+    /**
+     * Receives the thumbnails from {@link ThumbnailGenerator}.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the generator thread when a thumbnail is decoded. The picture is released
+         * after this method returns.
+         *
+         * @param picture   The picture.
+         * @param thumbnail The thumbnail.
+         */
+        void onThumbnail(Picture picture, Bitmap thumbnail);
+
+    }
+
+    static final int DEFAULT_CAPACITY = 4;
+
+    private static final int MAX_POOLED_BITMAPS = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final ArrayDeque<Bitmap> mPool = new ArrayDeque<>();
+
+    private long mHitCount;
+
+    private long mMissCount;
+
+    public ThumbnailGenerator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of pictures that can wait for their thumbnails.
+     */
+    public ThumbnailGenerator(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "ThumbnailGenerator");
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decodes a thumbnail of {@code picture} in the background. The picture is retained until
+     * the callback returns. Nothing happens if the queue is full or the picture cannot be decoded.
+     *
+     * @param picture  The picture.
+     * @param size     The minimum length of the longer side of the thumbnail, in pixels.
+     * @param callback Called on the generator thread with the thumbnail.
+     * @return {@code false} if the picture is dropped because the queue is full.
+     */
+    public boolean generate(final Picture picture, final int size, final Callback callback) {
+        picture.retain();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final Bitmap thumbnail = decode(picture.getBuffer(), size);
+                        if (thumbnail != null) {
+                            callback.onThumbnail(picture, thumbnail);
+                        }
+                    } finally {
+                        picture.close();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            picture.close();
+            return false;
+        }
+    }
+
+    /**
+     * Hands back a thumbnail that is no longer used, so that its memory is reused for the next
+     * ones. The bitmap must not be used after this call.
+     *
+     * @param thumbnail A thumbnail delivered by this generator.
+     */
+    public void recycle(Bitmap thumbnail) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT || !thumbnail.isMutable()) {
+            return;
+        }
+        synchronized (mPool) {
+            if (mPool.size() < MAX_POOLED_BITMAPS && !mPool.contains(thumbnail)) {
+                mPool.push(thumbnail);
+                return;
+            }
+        }
+        thumbnail.recycle();
+    }
+
+    /**
+     * @return The number of thumbnails decoded into a recycled bitmap.
+     */
+    public long getHitCount() {
+        synchronized (mPool) {
+            return mHitCount;
+        }
+    }
+
+    /**
+     * @return The number of thumbnails decoded into a new bitmap.
+     */
+    public long getMissCount() {
+        synchronized (mPool) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * Stops accepting pictures and drops the recycled bitmaps. The pictures in the queue are
+     * still decoded.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdown();
+        synchronized (mPool) {
+            for (Bitmap bitmap : mPool) {
+                bitmap.recycle();
+            }
+            mPool.clear();
+        }
+    }
+
+    /**
+     * Decodes a thumbnail of the JPEG file in {@code jpeg}, preferring the one embedded in its
+     * EXIF metadata.
+     */
+    Bitmap decode(ByteBuffer jpeg, int size) {
+        final int[] range = Exif.findThumbnail(jpeg);
+        if (range != null) {
+            final ByteBuffer embedded = jpeg.duplicate();
+            embedded.position(jpeg.position() + range[0]);
+            embedded.limit(embedded.position() + range[1]);
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            if (readBounds(embedded, options) &&
+                    Math.max(options.outWidth, options.outHeight) >= size) {
+                final Bitmap thumbnail = decode(embedded, options, size);
+                if (thumbnail != null) {
+                    return thumbnail;
+                }
+            }
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        if (!readBounds(jpeg, options)) {
+            return null;
+        }
+        return decode(jpeg, options, size);
+    }
+
+    /**
+     * Decodes {@code jpeg}, whose bounds are already in {@code options}.
+     */
+    private Bitmap decode(ByteBuffer jpeg, BitmapFactory.Options options, int size) {
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, size);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return decodeBuffer(jpeg, options);
+        }
+        useRecycledBitmap(options);
+        try {
+            return decodeBuffer(jpeg, options);
+        } catch (IllegalArgumentException e) {
+            // The recycled bitmap does not fit after all
+            options.inBitmap = null;
+            return decodeBuffer(jpeg, options);
+        }
+    }
+
+    @TargetApi(19)
+    private void useRecycledBitmap(BitmapFactory.Options options) {
+        options.inMutable = true;
+        final int sampleSize = options.inSampleSize;
+        options.inBitmap = acquire((options.outWidth + sampleSize - 1) / sampleSize,
+                (options.outHeight + sampleSize - 1) / sampleSize);
+    }
+
+    private static boolean readBounds(ByteBuffer jpeg, BitmapFactory.Options options) {
+        options.inJustDecodeBounds = true;
+        options.inSampleSize = 1;
+        options.outWidth = -1;
+        options.outHeight = -1;
+        decodeBuffer(jpeg, options);
+        return options.outWidth > 0 && options.outHeight > 0;
+    }
+
+    private static Bitmap decodeBuffer(ByteBuffer jpeg, BitmapFactory.Options options) {
+        if (jpeg.hasArray()) {
+            return BitmapFactory.decodeByteArray(jpeg.array(),
+                    jpeg.arrayOffset() + jpeg.position(), jpeg.remaining(), options);
+        }
+        // Direct buffers are streamed to avoid copying the whole picture to the heap.
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(jpeg.duplicate()), null,
+                options);
+    }
+
+    /**
+     * Takes a recycled bitmap that can hold a {@code width} by {@code height} thumbnail out of the
+     * pool.
+     */
+    @TargetApi(19)
+    private Bitmap acquire(int width, int height) {
+        // JPEG files are decoded to ARGB_8888 by default.
+        final int byteCount = width * height * 4;
+        synchronized (mPool) {
+            for (Iterator<Bitmap> i = mPool.iterator(); i.hasNext(); ) {
+                final Bitmap bitmap = i.next();
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    i.remove();
+                    mHitCount++;
+                    return bitmap;
+                }
+            }
+            mMissCount++;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the largest power of two to subsample a {@code width} by {@code height} picture
+     * with, so that its longer side stays at least {@code size} pixels long.
+     */
+    static int computeSampleSize(int width, int height, int size) {
+        final int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (size > 0 && longer / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+    }
+
+}
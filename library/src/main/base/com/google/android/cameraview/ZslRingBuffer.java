@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+/**
+ * <p>A bounded ring of recent frames for zero shutter lag. Adding a frame to a full ring evicts
+ * the oldest one, and a picture is taken by removing the frame closest to the shutter
+ * timestamp.</p>
+ * <p>A frame added to the ring is released with {@link #onRelease(Object)} when it is evicted or
+ * cleared, but not when it is taken out with {@link #take(long)}. This class is thread-safe.</p>
+ *
+ * @param <T> The type of the frames.
+ */
+abstract class ZslRingBuffer<T> {
+
+    private Object[] mFrames;
+
+    private long[] mTimestamps;
+
+    private int mHead;
+
+    private int mCount;
+
+    /**
+     * @param capacity The maximum number of frames kept in the ring.
+     */
+    ZslRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mFrames = new Object[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    /**
+     * Called when the ring is done with a frame that was not taken.
+     */
+    abstract void onRelease(T frame);
+
+    /**
+     * Adds a frame as the newest one, evicting the oldest frame if the ring is full.
+     *
+     * @param frame     The frame.
+     * @param timestamp The timestamp of the frame. Frames must be added in timestamp order.
+     */
+    synchronized void add(T frame, long timestamp) {
+        if (mCount == mFrames.length) {
+            onRelease(removeAt(0));
+        }
+        final int index = (mHead + mCount) % mFrames.length;
+        mFrames[index] = frame;
+        mTimestamps[index] = timestamp;
+        mCount++;
+    }
+
+    /**
+     * Removes the frame whose timestamp is the closest to {@code timestamp}. The caller becomes
+     * responsible for the returned frame.
+     *
+     * @return The frame, or {@code null} if the ring is empty.
+     */
+    synchronized T take(long timestamp) {
+        if (mCount == 0) {
+            return null;
+        }
+        int closest = 0;
+        long closestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            final long distance = Math.abs(mTimestamps[(mHead + i) % mFrames.length] - timestamp);
+            if (distance <= closestDistance) {
+                // Ties go to the newer frame
+                closest = i;
+                closestDistance = distance;
+            }
+        }
+        return removeAt(closest);
+    }
+
+    /**
+     * @return The timestamp of the newest frame, or {@link Long#MIN_VALUE} if the ring is empty.
+     */
+    synchronized long getNewestTimestamp() {
+        if (mCount == 0) {
+            return Long.MIN_VALUE;
+        }
+        return mTimestamps[(mHead + mCount - 1) % mFrames.length];
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    synchronized int getCapacity() {
+        return mFrames.length;
+    }
+
+    /**
+     * Changes the number of frames kept in the ring, releasing the oldest frames that do not fit.
+     */
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        while (mCount > capacity) {
+            onRelease(removeAt(0));
+        }
+        final Object[] frames = new Object[capacity];
+        final long[] timestamps = new long[capacity];
+        for (int i = 0; i < mCount; i++) {
+            frames[i] = mFrames[(mHead + i) % mFrames.length];
+            timestamps[i] = mTimestamps[(mHead + i) % mFrames.length];
+        }
+        mFrames = frames;
+        mTimestamps = timestamps;
+        mHead = 0;
+    }
+
+    /**
+     * Releases all the frames in the ring.
+     */
+    synchronized void clear() {
+        while (mCount > 0) {
+            onRelease(removeAt(0));
+        }
+        mHead = 0;
+    }
+
+    /**
+     * Removes the {@code position}-th oldest frame, shifting the older frames by one.
+     */
+    @SuppressWarnings("unchecked")
+    private T removeAt(int position) {
+        final int length = mFrames.length;
+        final T frame = (T) mFrames[(mHead + position) % length];
+        for (int i = position; i > 0; i--) {
+            final int to = (mHead + i) % length;
+            final int from = (mHead + i - 1) % length;
+            mFrames[to] = mFrames[from];
+            mTimestamps[to] = mTimestamps[from];
+        }
+        mFrames[mHead] = null;
+        mHead = (mHead + 1) % length;
+        mCount--;
+        return frame;
+    }
+
+}
@@ -19,10 +19,14 @@ package com.google.android.cameraview;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.os.ParcelableCompat;
@@ -31,6 +35,10 @@ import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.widget.FrameLayout;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -70,10 +78,48 @@ public class CameraView extends FrameLayout {
     public @interface Flash {
     }
 
+    /** Only the most recent frame waits for the frame analyzer; older frames are dropped. */
+    public static final int BACKPRESSURE_KEEP_LATEST = Constants.BACKPRESSURE_KEEP_LATEST;
+
+    /** A fixed number of frames wait for the frame analyzer; the oldest one is dropped. */
+    public static final int BACKPRESSURE_BOUNDED_QUEUE = Constants.BACKPRESSURE_BOUNDED_QUEUE;
+
+    /** A fixed number of frames wait for the frame analyzer; further frames are held back. */
+    public static final int BACKPRESSURE_BLOCK = Constants.BACKPRESSURE_BLOCK;
+
+    /** The strategy for frames that arrive while the frame analyzer is busy. */
+    @IntDef({BACKPRESSURE_KEEP_LATEST, BACKPRESSURE_BOUNDED_QUEUE, BACKPRESSURE_BLOCK})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Backpressure {
+    }
+
     CameraViewImpl mImpl;
 
     private final CallbackBridge mCallbacks;
 
+    private final BufferPool mBufferPool = new BufferPool(0);
+
+    // Also read on the thread that delivers the pictures
+    private PictureSaver mPictureSaver;
+
+    private ThumbnailGenerator mThumbnailGenerator;
+
+    private volatile int mThumbnailSize;
+
+    private FrameAnalyzer mFrameAnalyzer;
+
+    private int mFrameBackpressure = BACKPRESSURE_KEEP_LATEST;
+
+    private int mFrameQueueCapacity = 1;
+
+    private int mZslDepth;
+
+    private long mZslMaxMemory;
+
+    private SizeSelector mPreviewSizeSelector = SizeSelector.smallestCovering();
+
+    private SizeSelector mPictureSizeSelector = SizeSelector.largest();
+
     private boolean mAdjustViewBounds;
 
     private final DisplayOrientationDetector mDisplayOrientationDetector;
@@ -98,12 +144,13 @@ public class CameraView extends FrameLayout {
         final PreviewImpl preview = createPreviewImpl(context);
         mCallbacks = new CallbackBridge();
         if (Build.VERSION.SDK_INT < 21) {
-            mImpl = new Camera1(mCallbacks, preview);
+            mImpl = new Camera1(mCallbacks, preview, context);
         } else if (Build.VERSION.SDK_INT < 23) {
             mImpl = new Camera2(mCallbacks, preview, context);
         } else {
             mImpl = new Camera2Api23(mCallbacks, preview, context);
         }
+        mImpl.setBufferPool(mBufferPool);
         // Attributes
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.CameraView, defStyleAttr,
                 R.style.Widget_CameraView);
@@ -240,14 +287,21 @@ public class CameraView extends FrameLayout {
 
     /**
      * Open a camera device and start showing camera preview. This is typically called from
-     * {@link Activity#onResume()}.
+     * {@link Activity#onResume()}. The camera is opened in the background, and
+     * {@link Callback#onCameraOpened(CameraView)} is called once it is ready.
      */
     public void start() {
         if (!mImpl.start()) {
             //store the state ,and restore this state after fall back o Camera1
             Parcelable state=onSaveInstanceState();
             // Camera2 uses legacy hardware layer; fall back to Camera1
-            mImpl = new Camera1(mCallbacks, createPreviewImpl(getContext()));
+            mImpl = new Camera1(mCallbacks, createPreviewImpl(getContext()), getContext());
+            mImpl.setBufferPool(mBufferPool);
+            mImpl.setFrameAnalyzer(mFrameAnalyzer);
+            mImpl.setFrameBackpressure(mFrameBackpressure, mFrameQueueCapacity);
+            mImpl.setZeroShutterLag(mZslDepth, mZslMaxMemory);
+            mImpl.setPreviewSizeSelector(mPreviewSizeSelector);
+            mImpl.setPictureSizeSelector(mPictureSizeSelector);
             onRestoreInstanceState(state);
             mImpl.start();
         }
@@ -255,7 +309,8 @@ public class CameraView extends FrameLayout {
 
     /**
      * Stop camera preview and close the device. This is typically called from
-     * {@link Activity#onPause()}.
+     * {@link Activity#onPause()}. The device is closed in the background, and
+     * {@link Callback#onCameraClosed(CameraView)} is called once it is released.
      */
     public void stop() {
         mImpl.stop();
@@ -399,18 +454,419 @@ public class CameraView extends FrameLayout {
         return mImpl.getFlash();
     }
 
+    /**
+     * <p>Sets the maximum memory used for recycling picture buffers. The default is 0, which
+     * disables recycling.</p>
+     * <p>When enabled, the JPEG data of each picture is copied into a buffer from
+     * {@link #getPictureBufferPool()}, and the camera's own buffer is returned to the camera right
+     * away. Closing the {@link Picture} recycles its buffer for the following captures. This is
+     * only effective with the Camera2 API; Camera1 allocates the data for each picture itself.</p>
+     *
+     * @param maxSize The maximum size in bytes.
+     */
+    public void setPictureBufferPoolSize(long maxSize) {
+        mBufferPool.setMaxSize(maxSize);
+    }
+
+    /**
+     * @return The pool of recycled picture buffers. Use it to see the hit and miss counts, or to
+     * recycle arrays that are no longer used.
+     * @see #setPictureBufferPoolSize(long)
+     */
+    public BufferPool getPictureBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Sets the saver that writes the pictures taken with {@link #takePicture(File,
+     * PictureSaver.Callback)} and its variants. A saver can be shared by several views.
+     *
+     * @param saver The saver.
+     */
+    public synchronized void setPictureSaver(@NonNull PictureSaver saver) {
+        mPictureSaver = saver;
+    }
+
+    /**
+     * @return The saver of the pictures. A default one with a queue of 8 pictures is created the
+     * first time it is needed. It can also be used to save the pictures of a burst from
+     * {@link Callback#onPictureTaken(CameraView, Picture)}.
+     */
+    @NonNull
+    public synchronized PictureSaver getPictureSaver() {
+        if (mPictureSaver == null) {
+            mPictureSaver = new PictureSaver();
+        }
+        return mPictureSaver;
+    }
+
+    /**
+     * Makes every taken picture go through {@link #getThumbnailGenerator()}, and delivers the
+     * thumbnails to {@link Callback#onThumbnailReady(CameraView, Picture, Bitmap)}.
+     *
+     * @param size The minimum length of the longer side of the thumbnails, in pixels, or 0 to stop
+     *             generating thumbnails. This is 0 by default.
+     */
+    public void setThumbnailSize(@IntRange(from = 0) int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        mThumbnailSize = size;
+    }
+
+    /**
+     * @return The minimum length of the longer side of the thumbnails, or 0 if no thumbnails are
+     * generated.
+     * @see #setThumbnailSize(int)
+     */
+    public int getThumbnailSize() {
+        return mThumbnailSize;
+    }
+
+    /**
+     * Sets the generator of the thumbnails. A generator can be shared by several views.
+     *
+     * @param generator The generator.
+     * @see #setThumbnailSize(int)
+     */
+    public synchronized void setThumbnailGenerator(@NonNull ThumbnailGenerator generator) {
+        mThumbnailGenerator = generator;
+    }
+
+    /**
+     * @return The generator of the thumbnails. A default one is created the first time it is
+     * needed. Hand the thumbnails that are no longer shown back to
+     * {@link ThumbnailGenerator#recycle(Bitmap)}.
+     */
+    @NonNull
+    public synchronized ThumbnailGenerator getThumbnailGenerator() {
+        if (mThumbnailGenerator == null) {
+            mThumbnailGenerator = new ThumbnailGenerator();
+        }
+        return mThumbnailGenerator;
+    }
+
+    /**
+     * <p>Sets an analyzer that receives the preview frames while the camera is open. Frames are
+     * delivered on a background thread, in {@link android.graphics.ImageFormat#YUV_420_888} with
+     * the Camera2 API and in {@link android.graphics.ImageFormat#NV21} with Camera1, at the
+     * resolution of the preview.</p>
+     * <p>Setting or clearing the analyzer while the camera is open reconfigures the camera.</p>
+     *
+     * @param analyzer The analyzer, or {@code null} to stop streaming frames.
+     */
+    public void setFrameAnalyzer(@Nullable FrameAnalyzer analyzer) {
+        mFrameAnalyzer = analyzer;
+        mImpl.setFrameAnalyzer(analyzer);
+    }
+
+    /**
+     * @return The current frame analyzer, or {@code null} if there is none.
+     * @see #setFrameAnalyzer(FrameAnalyzer)
+     */
+    @Nullable
+    public FrameAnalyzer getFrameAnalyzer() {
+        return mFrameAnalyzer;
+    }
+
+    /**
+     * <p>Sets what happens to preview frames that arrive while the frame analyzer is still busy
+     * with a previous one. The default is {@link #BACKPRESSURE_KEEP_LATEST}.</p>
+     * <p>{@link #BACKPRESSURE_KEEP_LATEST} and {@link #BACKPRESSURE_BOUNDED_QUEUE} always leave the
+     * camera a free buffer, so a slow analyzer never holds back the preview. With
+     * {@link #BACKPRESSURE_BLOCK}, no frame is dropped once it is queued; the camera holds back
+     * frames instead, which are not counted by {@link #getDroppedFrameCount()}. On the Camera2
+     * API, this can lower the preview frame rate while the analyzer is behind.</p>
+     *
+     * @param strategy The backpressure strategy.
+     * @param capacity The number of frames that can wait for the analyzer. Ignored for
+     *                 {@link #BACKPRESSURE_KEEP_LATEST}.
+     */
+    public void setFrameBackpressure(@Backpressure int strategy, int capacity) {
+        mImpl.setFrameBackpressure(strategy, capacity);
+        mFrameBackpressure = strategy;
+        mFrameQueueCapacity = capacity;
+    }
+
+    /**
+     * @return The number of frames delivered to the frame analyzer since the camera
+     * implementation was created.
+     */
+    public long getAnalyzedFrameCount() {
+        return mImpl.getAnalyzedFrameCount();
+    }
+
+    /**
+     * @return The number of frames that were dropped because the frame analyzer was busy.
+     * @see #setFrameBackpressure(int, int)
+     */
+    public long getDroppedFrameCount() {
+        return mImpl.getDroppedFrameCount();
+    }
+
+    /**
+     * <p>Sets how the preview size is chosen among the sizes of the current aspect ratio. The
+     * default is {@link SizeSelector#smallestCovering()}.</p>
+     * <p>The chosen sizes are remembered, so the selector only runs again when the camera, the
+     * aspect ratio or the size of this view changes.</p>
+     *
+     * @param selector The selector.
+     */
+    public void setPreviewSizeSelector(@NonNull SizeSelector selector) {
+        mPreviewSizeSelector = selector;
+        mImpl.setPreviewSizeSelector(selector);
+    }
+
+    /**
+     * @return The selector of the preview size.
+     * @see #setPreviewSizeSelector(SizeSelector)
+     */
+    @NonNull
+    public SizeSelector getPreviewSizeSelector() {
+        return mPreviewSizeSelector;
+    }
+
+    /**
+     * <p>Sets how the picture size is chosen among the sizes of the current aspect ratio. The
+     * default is {@link SizeSelector#largest()}.</p>
+     * <p>Changing the picture size while the camera is open reconfigures the camera.</p>
+     *
+     * @param selector The selector.
+     */
+    public void setPictureSizeSelector(@NonNull SizeSelector selector) {
+        mPictureSizeSelector = selector;
+        mImpl.setPictureSizeSelector(selector);
+    }
+
+    /**
+     * @return The selector of the picture size.
+     * @see #setPictureSizeSelector(SizeSelector)
+     */
+    @NonNull
+    public SizeSelector getPictureSizeSelector() {
+        return mPictureSizeSelector;
+    }
+
+    /**
+     * <p>Returns the preview frame rate, its jitter and the dropped frames since the camera was
+     * started. Measuring them is cheap and always on.</p>
+     * <p>With Camera2, the frames are measured at the sensor. With the Camera1 API, they are
+     * measured as they reach the {@link android.view.TextureView} of the preview, so nothing is
+     * measured on devices older than API level 14.</p>
+     *
+     * @return A snapshot of the preview metrics.
+     */
+    @NonNull
+    public PreviewMetrics getPreviewMetrics() {
+        return mImpl.getPreviewMetrics();
+    }
+
+    /**
+     * <p>Returns the timings of the latest {@link #start()}, or of the latest switch of
+     * {@link #setFacing(int) facing}, up to the first preview frame. The timeline is complete when
+     * {@link Callback#onPreviewStarted(CameraView, StartupTimeline)} is called; before that, the
+     * steps that are not reached yet are missing.</p>
+     * <p>The same steps are traced as {@code CameraView:} sections with
+     * {@link android.os.Trace} on API level 18 and above.</p>
+     *
+     * @return The timeline, or {@code null} if the camera was never started.
+     */
+    @Nullable
+    public StartupTimeline getStartupTimeline() {
+        return mImpl.getStartupTimeline();
+    }
+
     /**
      * Take a picture. The result will be returned to
+     * {@link Callback#onPictureTaken(CameraView, Picture)} and
      * {@link Callback#onPictureTaken(CameraView, byte[])}.
      */
     public void takePicture() {
         mImpl.takePicture();
     }
 
-    private class CallbackBridge implements CameraViewImpl.Callback {
+    /**
+     * <p>Enables zero shutter lag. The camera keeps streaming full resolution frames into a ring of
+     * the last {@code depth} frames, and {@link #takePicture()} picks the frame closest to the
+     * moment it is called instead of waiting for focus and exposure. The picture is encoded from
+     * that frame, with the orientation in its EXIF metadata.</p>
+     * <p>Each buffered frame takes width &times; height &times; 1.5 bytes, and the camera needs two
+     * more buffers than {@code depth}. The largest frame size of the current aspect ratio whose
+     * buffers fit in {@code maxMemory} is used; for example, a depth of 3 at 12 megapixels needs
+     * about 90 MB. If no size fits, zero shutter lag stays off.</p>
+     * <p>This is only supported by the Camera2 API on devices with full hardware support. Pictures
+     * that need the flash and bursts are still taken the regular way. Use
+     * {@link #isZeroShutterLagActive()} to see whether it is in effect.</p>
+     *
+     * @param depth     The number of frames to keep, or 0 to disable zero shutter lag.
+     * @param maxMemory The maximum size in bytes of the frame buffers.
+     */
+    public void setZeroShutterLag(@IntRange(from = 0) int depth, long maxMemory) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        mZslDepth = depth;
+        mZslMaxMemory = maxMemory;
+        mImpl.setZeroShutterLag(depth, maxMemory);
+    }
+
+    /**
+     * @return The number of frames kept for zero shutter lag, or 0 if it is disabled.
+     * @see #setZeroShutterLag(int, long)
+     */
+    public int getZeroShutterLagDepth() {
+        return mZslDepth;
+    }
+
+    /**
+     * @return {@code true} if pictures are currently taken from recent frames.
+     * @see #setZeroShutterLag(int, long)
+     */
+    public boolean isZeroShutterLagActive() {
+        return mImpl.isZeroShutterLagActive();
+    }
+
+    /**
+     * <p>Takes {@code count} pictures in a row, as fast as the camera allows. Focus is locked once
+     * for the whole burst. The pictures are returned to
+     * {@link Callback#onPictureTaken(CameraView, Picture)} one by one, in the order they were
+     * taken; {@link Picture#getBurstIndex()} and {@link Picture#getBurstCount()} tell where each of
+     * them belongs.</p>
+     * <p>Pictures that are kept with {@link Picture#retain()} hold camera buffers, so release them
+     * as soon as possible during long bursts.</p>
+     *
+     * @param count The number of pictures to take.
+     */
+    public void takeBurst(@IntRange(from = 1) int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be positive: " + count);
+        }
+        mImpl.takeBurst(count, null);
+    }
+
+    /**
+     * <p>Takes {@code files.length} pictures in a row like {@link #takeBurst(int)}, and saves
+     * them with {@link #getPictureSaver()} like {@link #takePicture(File, PictureSaver.Callback)}.
+     * The pictures are not passed to {@link Callback#onPictureTaken(CameraView, Picture)}.</p>
+     * <p>The files are synced together once the last picture is written, so the callback is
+     * called for all of them at the end of the burst.</p>
+     *
+     * @param files    The destination files, in the order the pictures are taken. They are
+     *                 replaced if they exist.
+     * @param callback Called on the main thread for each file when it is saved or cannot be
+     *                 saved.
+     */
+    public void takeBurst(@NonNull final File[] files, @NonNull PictureSaver.Callback callback) {
+        if (files.length < 1) {
+            throw new IllegalArgumentException("files must not be empty");
+        }
+        final PictureSaver.Callback mainThreadCallback = new MainThreadSaverCallback(callback);
+        mImpl.takeBurst(files.length, new PictureSaver.Destination() {
+            @Override
+            public void save(PictureSaver saver, Picture picture) {
+                saver.save(picture, files[picture.getBurstIndex()], mainThreadCallback);
+            }
+        });
+    }
+
+    /**
+     * <p>Takes a picture and saves it to {@code file} with {@link #getPictureSaver()}, without
+     * copying the JPEG data to the Java heap. The picture is not passed to
+     * {@link Callback#onPictureTaken(CameraView, Picture)}.</p>
+     * <p>The picture is written to a temporary file and renamed, so {@code file} only appears
+     * once it is complete.</p>
+     *
+     * @param file     The destination file. It is replaced if it exists.
+     * @param callback Called on the main thread when the file is saved or cannot be saved.
+     */
+    public void takePicture(@NonNull final File file,
+            @NonNull PictureSaver.Callback callback) {
+        final PictureSaver.Callback mainThreadCallback = new MainThreadSaverCallback(callback);
+        mImpl.takeBurst(1, new PictureSaver.Destination() {
+            @Override
+            public void save(PictureSaver saver, Picture picture) {
+                saver.save(picture, file, mainThreadCallback);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #takePicture(File, PictureSaver.Callback)}, but writes the picture to
+     * {@code out}. The stream is not closed.
+     */
+    public void takePicture(@NonNull final OutputStream out,
+            @NonNull PictureSaver.Callback callback) {
+        final PictureSaver.Callback mainThreadCallback = new MainThreadSaverCallback(callback);
+        mImpl.takeBurst(1, new PictureSaver.Destination() {
+            @Override
+            public void save(PictureSaver saver, Picture picture) {
+                saver.save(picture, out, mainThreadCallback);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #takePicture(File, PictureSaver.Callback)}, but writes the picture to
+     * {@code fd}, such as one opened from a {@link android.content.ContentResolver}. The
+     * descriptor is not closed.
+     */
+    public void takePicture(@NonNull final FileDescriptor fd,
+            @NonNull PictureSaver.Callback callback) {
+        final PictureSaver.Callback mainThreadCallback = new MainThreadSaverCallback(callback);
+        mImpl.takeBurst(1, new PictureSaver.Destination() {
+            @Override
+            public void save(PictureSaver saver, Picture picture) {
+                saver.save(picture, fd, mainThreadCallback);
+            }
+        });
+    }
+
+    /**
+     * Calls a {@link PictureSaver.Callback} on the main thread.
+     */
+    private static class MainThreadSaverCallback implements PictureSaver.Callback {
+
+        private final PictureSaver.Callback mCallback;
+
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        MainThreadSaverCallback(PictureSaver.Callback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onPictureSaved(final File file, final long size, final long latency) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onPictureSaved(file, size, latency);
+                }
+            });
+        }
+
+        @Override
+        public void onSaveFailed(final File file, final IOException e) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onSaveFailed(file, e);
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Dispatches events from {@link CameraViewImpl} to {@link Callback}s. The events can arrive on
+     * a background thread of the camera implementation, but {@link Callback}s are always called on
+     * the main thread.
+     */
+    private class CallbackBridge implements CameraViewImpl.Callback, ThumbnailGenerator.Callback {
 
         private final ArrayList<Callback> mCallbacks = new ArrayList<>();
 
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
         private boolean mRequestLayoutOnOpen;
 
         CallbackBridge() {
@@ -426,6 +882,15 @@ public class CameraView extends FrameLayout {
 
         @Override
         public void onCameraOpened() {
+            if (!isMainThread()) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCameraOpened();
+                    }
+                });
+                return;
+            }
             if (mRequestLayoutOnOpen) {
                 mRequestLayoutOnOpen = false;
                 requestLayout();
@@ -437,21 +902,132 @@ public class CameraView extends FrameLayout {
 
         @Override
         public void onCameraClosed() {
+            if (!isMainThread()) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCameraClosed();
+                    }
+                });
+                return;
+            }
             for (Callback callback : mCallbacks) {
                 callback.onCameraClosed(CameraView.this);
             }
         }
 
         @Override
-        public void onPictureTaken(byte[] data) {
+        public void onPictureTaken(final Picture picture) {
+            final CaptureTimeline timeline = picture.getTimeline();
+            if (timeline != null && timeline.getDestination() != null) {
+                // Handed to the saver right here, so that the file is not held up by the main
+                // thread.
+                savePicture(picture, timeline);
+                return;
+            }
+            if (!isMainThread()) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPictureTaken(picture);
+                    }
+                });
+                return;
+            }
+            if (timeline != null) {
+                timeline.mark(CaptureTimeline.EVENT_DISPATCHED);
+            }
+            generateThumbnail(picture);
+            try {
+                for (Callback callback : mCallbacks) {
+                    callback.onPictureTaken(CameraView.this, picture);
+                }
+                if (timeline != null) {
+                    onCaptureTimeline(timeline);
+                }
+            } finally {
+                picture.close();
+            }
+        }
+
+        private void savePicture(Picture picture, final CaptureTimeline timeline) {
+            timeline.mark(CaptureTimeline.EVENT_DISPATCHED);
+            generateThumbnail(picture);
+            try {
+                timeline.getDestination().save(getPictureSaver(), picture);
+            } finally {
+                picture.close();
+            }
+            if (isMainThread()) {
+                onCaptureTimeline(timeline);
+            } else {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCaptureTimeline(timeline);
+                    }
+                });
+            }
+        }
+
+        private void generateThumbnail(Picture picture) {
+            final int size = mThumbnailSize;
+            if (size > 0) {
+                // Started first so that the decoding overlaps with the callbacks
+                getThumbnailGenerator().generate(picture, size, this);
+            }
+        }
+
+        private void onCaptureTimeline(CaptureTimeline timeline) {
             for (Callback callback : mCallbacks) {
-                callback.onPictureTaken(CameraView.this, data);
+                callback.onCaptureTimeline(CameraView.this, timeline);
+            }
+        }
+
+        @Override
+        public void onThumbnail(final Picture picture, final Bitmap thumbnail) {
+            if (!isMainThread()) {
+                picture.retain();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            onThumbnail(picture, thumbnail);
+                        } finally {
+                            picture.close();
+                        }
+                    }
+                });
+                return;
+            }
+            for (Callback callback : mCallbacks) {
+                callback.onThumbnailReady(CameraView.this, picture, thumbnail);
+            }
+        }
+
+        @Override
+        public void onPreviewStarted(final StartupTimeline timeline) {
+            if (!isMainThread()) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPreviewStarted(timeline);
+                    }
+                });
+                return;
+            }
+            for (Callback callback : mCallbacks) {
+                callback.onPreviewStarted(CameraView.this, timeline);
             }
         }
 
         public void reserveRequestLayoutOnOpen() {
             mRequestLayoutOnOpen = true;
         }
+
+        private boolean isMainThread() {
+            return Looper.myLooper() == Looper.getMainLooper();
+        }
     }
 
     protected static class SavedState extends BaseSavedState {
@@ -506,7 +1082,8 @@ public class CameraView extends FrameLayout {
     }
 
     /**
-     * Callback for monitoring events about {@link CameraView}.
+     * Callback for monitoring events about {@link CameraView}. All the methods are called on the
+     * main thread.
      */
     @SuppressWarnings("UnusedParameters")
     public abstract static class Callback {
@@ -527,14 +1104,69 @@ public class CameraView extends FrameLayout {
         public void onCameraClosed(CameraView cameraView) {
         }
 
+        /**
+         * <p>Called when a picture is taken.</p>
+         * <p>The {@link Picture} gives access to the JPEG data without copying it. It is released
+         * after this method returns; call {@link Picture#retain()} to keep it longer, and
+         * {@link Picture#close()} when done with it. Holding on to pictures can stall the camera
+         * until they are released.</p>
+         * <p>The default implementation copies the data and passes it to
+         * {@link #onPictureTaken(CameraView, byte[])}. Override this method without calling the
+         * super implementation to avoid the copy.</p>
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param picture    The taken picture.
+         */
+        public void onPictureTaken(CameraView cameraView, Picture picture) {
+            onPictureTaken(cameraView, picture.getBytes());
+        }
+
         /**
          * Called when a picture is taken.
          *
          * @param cameraView The associated {@link CameraView}.
          * @param data       JPEG data.
+         * @see #onPictureTaken(CameraView, Picture)
          */
         public void onPictureTaken(CameraView cameraView, byte[] data) {
         }
+
+        /**
+         * <p>Called with the thumbnail of a picture when {@link CameraView#setThumbnailSize(int)}
+         * is set. This is called after {@link #onPictureTaken(CameraView, Picture)} for the same
+         * picture.</p>
+         * <p>The picture is released after this method returns, like in
+         * {@link #onPictureTaken(CameraView, Picture)}. The thumbnail belongs to the callback;
+         * hand it back to {@link ThumbnailGenerator#recycle(Bitmap)} when it is not shown
+         * anymore.</p>
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param picture    The picture.
+         * @param thumbnail  The thumbnail, not rotated by the EXIF orientation of the picture.
+         */
+        public void onThumbnailReady(CameraView cameraView, Picture picture, Bitmap thumbnail) {
+        }
+
+        /**
+         * Called when the first preview frame arrives after {@link CameraView#start()} or after a
+         * switch of facing, with the timings of the steps that led to it.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param timeline   The timings of the start.
+         */
+        public void onPreviewStarted(CameraView cameraView, StartupTimeline timeline) {
+        }
+
+        /**
+         * Called after {@link #onPictureTaken(CameraView, Picture)} with the timings of the steps
+         * the picture went through, from {@link CameraView#takePicture()} to the dispatch of the
+         * picture.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param timeline   The timings of the picture.
+         */
+        public void onCaptureTimeline(CameraView cameraView, CaptureTimeline timeline) {
+        }
     }
 
 }
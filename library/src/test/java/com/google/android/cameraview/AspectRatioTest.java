@@ -17,11 +17,15 @@
 package com.google.android.cameraview;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import org.junit.Test;
 
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class AspectRatioTest {
 
@@ -104,4 +108,75 @@ public class AspectRatioTest {
         AspectRatio.parse("MALFORMED");
     }
 
+    @Test
+    public void testOf_interned() {
+        assertThat(AspectRatio.of(16, 9), is(sameInstance(AspectRatio.of(32, 18))));
+        assertThat(AspectRatio.parse("4:3"), is(sameInstance(AspectRatio.of(4, 3))));
+    }
+
+    @Test
+    public void testOf_bounded() {
+        // Ratios of the same height whose widths differ by a multiple of the table capacity (512)
+        // are probed from the same slot, so only the first few of them can be interned.
+        final int count = 32;
+        for (int i = 0; i < count; i++) {
+            final int x = 1 + 512 * i;
+            final AspectRatio ratio = AspectRatio.of(x, 1999);
+            assertThat(ratio.getX(), is(x));
+            assertThat(ratio.getY(), is(1999));
+            assertThat(AspectRatio.of(x * 2, 3998), is(ratio));
+        }
+        final int x = 1 + 512 * (count - 1);
+        assertThat(AspectRatio.of(x, 1999), is(not(sameInstance(AspectRatio.of(x, 1999)))));
+    }
+
+    @Test
+    public void testOf_concurrent() throws InterruptedException {
+        final int threads = 8;
+        final int ratios = 64;
+        final int rounds = 200;
+        final AspectRatio[][] results = new AspectRatio[threads][ratios];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final AspectRatio[] result = results[t];
+            final int offset = t * 7;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int round = 0; round < rounds; round++) {
+                            for (int i = 0; i < ratios; i++) {
+                                // Threads go through the ratios in different orders.
+                                final int r = (i + offset) % ratios;
+                                final int k = round % 5 + 1;
+                                result[r] = round % 2 == 0 ?
+                                        AspectRatio.of((r + 3001) * k, 3989 * k) :
+                                        AspectRatio.parse((r + 3001) + ":3989");
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+        for (int r = 0; r < ratios; r++) {
+            final AspectRatio ratio = AspectRatio.of(r + 3001, 3989);
+            // A ratio misses the cache only when all its slots are taken, and then it never gets in.
+            final boolean interned = ratio == AspectRatio.of(r + 3001, 3989);
+            for (int t = 0; t < threads; t++) {
+                assertThat(results[t][r], is(ratio));
+                if (interned) {
+                    assertThat(results[t][r], is(sameInstance(ratio)));
+                }
+            }
+        }
+    }
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testCapacityFor() {
+        assertThat(BufferPool.capacityFor(1), is(4096));
+        assertThat(BufferPool.capacityFor(4097), is(4608));
+        assertThat(BufferPool.capacityFor(5000000), is(5242880));
+        assertThat(BufferPool.capacityFor(5242880), is(5242880));
+    }
+
+    @Test
+    public void testAcquire_recycles() {
+        BufferPool pool = new BufferPool(10000000);
+        byte[] a = pool.acquire(5000000);
+        assertThat(a.length >= 5000000, is(true));
+        assertThat(pool.getMissCount(), is(1L));
+        pool.release(a);
+        assertThat(pool.getSize(), is((long) a.length));
+        byte[] b = pool.acquire(4900000);
+        assertThat(b, is(sameInstance(a)));
+        assertThat(pool.getHitCount(), is(1L));
+        assertThat(pool.getSize(), is(0L));
+    }
+
+    @Test
+    public void testAcquire_tooLarge() {
+        BufferPool pool = new BufferPool(10000000);
+        byte[] a = pool.acquire(5000000);
+        pool.release(a);
+        byte[] b = pool.acquire(100000);
+        assertThat(b, is(not(sameInstance(a))));
+        assertThat(pool.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void testRelease_full() {
+        BufferPool pool = new BufferPool(6000000);
+        byte[] a = pool.acquire(5000000);
+        byte[] b = pool.acquire(5000000);
+        pool.release(a);
+        pool.release(b);
+        assertThat(pool.getSize(), is((long) a.length));
+    }
+
+    @Test
+    public void testSetMaxSize() {
+        BufferPool pool = new BufferPool(100000);
+        pool.release(pool.acquire(10000));
+        pool.release(pool.acquire(50000));
+        pool.setMaxSize(20000);
+        assertThat(pool.getSize() <= 20000, is(true));
+        assertThat(pool.getSize() > 0, is(true));
+        pool.setMaxSize(0);
+        assertThat(pool.getSize(), is(0L));
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class BurstQueueTest {
+
+    @Test
+    public void testOverlappingBursts() {
+        BurstQueue queue = new BurstQueue();
+        CaptureTimeline first = CaptureTimeline.start(null);
+        CaptureTimeline second = CaptureTimeline.start(null);
+        CaptureTimeline third = CaptureTimeline.start(null);
+        assertThat(queue.offer(3, first), is(true));
+        // Requested while the first burst is being taken
+        assertThat(queue.offer(1, second), is(false));
+        assertThat(queue.offer(2, third), is(false));
+        assertThat(queue.getWaitingCount(), is(2));
+        BurstQueue.Request next = queue.next();
+        assertThat(next.mCount, is(1));
+        assertThat(next.mTimeline, is(sameInstance(second)));
+        assertThat(queue.isRunning(), is(true));
+        next = queue.next();
+        assertThat(next.mCount, is(2));
+        assertThat(next.mTimeline, is(sameInstance(third)));
+        assertThat(queue.next(), is(nullValue()));
+        assertThat(queue.isRunning(), is(false));
+        assertThat(queue.offer(1, first), is(true));
+    }
+
+    @Test
+    public void testAbortKeepsWaiting() {
+        BurstQueue queue = new BurstQueue();
+        CaptureTimeline waiting = CaptureTimeline.start(null);
+        queue.offer(1, CaptureTimeline.start(null));
+        queue.offer(1, waiting);
+        queue.abort();
+        assertThat(queue.isRunning(), is(false));
+        assertThat(queue.next().mTimeline, is(sameInstance(waiting)));
+    }
+
+    @Test
+    public void testClear() {
+        BurstQueue queue = new BurstQueue();
+        queue.offer(1, CaptureTimeline.start(null));
+        queue.offer(1, CaptureTimeline.start(null));
+        queue.clear();
+        assertThat(queue.isRunning(), is(false));
+        assertThat(queue.getWaitingCount(), is(0));
+        assertThat(queue.next(), is(nullValue()));
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class CapabilityStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static CameraCapabilities createCapabilities(String id) {
+        SizeMap previewSizes = new SizeMap();
+        previewSizes.add(new Size(640, 480));
+        previewSizes.add(new Size(1280, 720));
+        SizeMap pictureSizes = new SizeMap();
+        pictureSizes.add(new Size(4000, 3000));
+        return new CameraCapabilities(id, 1, 2, 270,
+                CameraCapabilities.FOCUS_AUTO | CameraCapabilities.FOCUS_CONTINUOUS,
+                1 << Constants.FLASH_OFF, 0x123456789L, previewSizes, pictureSizes, null);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File file = new File(mFolder.getRoot(), "store");
+        CapabilityStore store = new CapabilityStore(file, "build/1");
+        assertThat(store.isLoaded(), is(false));
+        store.setCameraIds(new String[]{"0", "1"});
+        assertThat(store.put(createCapabilities("1")), is(true));
+        assertThat(store.put(createCapabilities("1")), is(false));
+        store.save();
+
+        CapabilityStore loaded = new CapabilityStore(file, "build/1");
+        assertThat(loaded.isLoaded(), is(true));
+        assertThat(loaded.getCameraIds(), is(new String[]{"0", "1"}));
+        CameraCapabilities capabilities = loaded.get("1");
+        assertThat(capabilities, is(createCapabilities("1")));
+        assertThat(capabilities.yuvSizes, is(nullValue()));
+        assertThat(capabilities.getSupportedAspectRatios().size(), is(1));
+        assertThat(loaded.get("0"), is(nullValue()));
+    }
+
+    @Test
+    public void testLoadedOnFirstUse() throws Exception {
+        File file = new File(mFolder.getRoot(), "store");
+        CapabilityStore opened = new CapabilityStore(file, "build/1");
+        CapabilityStore store = new CapabilityStore(file, "build/1");
+        store.put(createCapabilities("1"));
+        store.save();
+        // The file did not exist when the store was opened.
+        assertThat(opened.get("1"), is(createCapabilities("1")));
+        assertThat(opened.isLoaded(), is(true));
+    }
+
+    @Test
+    public void testFingerprintMismatch() throws Exception {
+        File file = new File(mFolder.getRoot(), "store");
+        CapabilityStore store = new CapabilityStore(file, "build/1");
+        store.put(createCapabilities("0"));
+        store.save();
+        CapabilityStore loaded = new CapabilityStore(file, "build/2");
+        assertThat(loaded.isLoaded(), is(false));
+        assertThat(loaded.get("0"), is(nullValue()));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        File file = new File(mFolder.getRoot(), "store");
+        CapabilityStore store = new CapabilityStore(file, "build/1");
+        store.put(createCapabilities("0"));
+        store.save();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() / 2);
+        int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        CapabilityStore loaded = new CapabilityStore(file, "build/1");
+        assertThat(loaded.isLoaded(), is(false));
+        assertThat(loaded.getAll().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testClear() {
+        CapabilityStore store = new CapabilityStore(new File(mFolder.getRoot(), "store"), "b");
+        store.setCameraIds(new String[]{"0"});
+        store.put(createCapabilities("0"));
+        store.clear();
+        assertThat(store.getCameraIds(), is(nullValue()));
+        assertThat(store.get("0"), is(nullValue()));
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class CaptureTimelineTest {
+
+    @Test
+    public void testStart() {
+        CaptureTimeline timeline = CaptureTimeline.start();
+        assertThat(timeline.hasEvent(CaptureTimeline.EVENT_REQUESTED), is(true));
+        assertThat(timeline.hasEvent(CaptureTimeline.EVENT_SHUTTER), is(false));
+        assertThat(timeline.getBurstIndex(), is(0));
+        assertThat(timeline.getBurstCount(), is(1));
+        assertThat(timeline.getShutterLag(), is(-1L));
+        assertThat(timeline.getTotal(), is(-1L));
+    }
+
+    @Test
+    public void testDurations() {
+        CaptureTimeline timeline = CaptureTimeline.start();
+        long requested = timeline.getTime(CaptureTimeline.EVENT_REQUESTED);
+        timeline.mark(CaptureTimeline.EVENT_SHUTTER, requested + 30);
+        timeline.mark(CaptureTimeline.EVENT_DISPATCHED, requested + 100);
+        assertThat(timeline.getShutterLag(), is(30L));
+        assertThat(timeline.getTotal(), is(100L));
+        assertThat(timeline.getDuration(CaptureTimeline.EVENT_SHUTTER,
+                CaptureTimeline.EVENT_DISPATCHED), is(70L));
+        assertThat(timeline.getDuration(CaptureTimeline.EVENT_PRECAPTURE,
+                CaptureTimeline.EVENT_DISPATCHED), is(-1L));
+    }
+
+    @Test
+    public void testFirstMarkWins() {
+        CaptureTimeline timeline = CaptureTimeline.start();
+        timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKING, 10);
+        timeline.mark(CaptureTimeline.EVENT_FOCUS_LOCKING, 20);
+        assertThat(timeline.getTime(CaptureTimeline.EVENT_FOCUS_LOCKING), is(10L));
+    }
+
+    @Test
+    public void testForShot() {
+        CaptureTimeline timeline = CaptureTimeline.start();
+        timeline.mark(CaptureTimeline.EVENT_CAPTURING, 10);
+        CaptureTimeline first = timeline.forShot(0, 2);
+        CaptureTimeline second = timeline.forShot(1, 2);
+        first.mark(CaptureTimeline.EVENT_SHUTTER, 20);
+        assertThat(second.getBurstIndex(), is(1));
+        assertThat(second.getBurstCount(), is(2));
+        assertThat(second.getTime(CaptureTimeline.EVENT_CAPTURING), is(10L));
+        assertThat(second.hasEvent(CaptureTimeline.EVENT_SHUTTER), is(false));
+        assertThat(timeline.hasEvent(CaptureTimeline.EVENT_SHUTTER), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetTimeNotRecorded() {
+        CaptureTimeline.start().getTime(CaptureTimeline.EVENT_WAITING);
+    }
+
+    @Test
+    public void testPictureTimeline() {
+        CaptureTimeline shot = CaptureTimeline.start().forShot(2, 3);
+        Picture picture = new Picture(new byte[1]).setTimeline(shot);
+        assertThat(picture.getTimeline(), is(shot));
+        assertThat(picture.getBurstIndex(), is(2));
+        assertThat(picture.getBurstCount(), is(3));
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+public class ExifTest {
+
+    @Test
+    public void testToOrientation() {
+        assertThat(Exif.toOrientation(0), is(1));
+        assertThat(Exif.toOrientation(90), is(6));
+        assertThat(Exif.toOrientation(180), is(3));
+        assertThat(Exif.toOrientation(270), is(8));
+    }
+
+    @Test
+    public void testAddOrientation() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9, 0};
+        byte[] result = Exif.addOrientation(jpeg, 4, 90);
+        assertThat(result.length, is(4 + 36));
+        assertThat(result[2] & 0xFF, is(0xFF));
+        assertThat(result[3] & 0xFF, is(0xE1));
+        // The segment length excludes the marker
+        assertThat((result[4] << 8) | result[5], is(34));
+        assertThat(new String(result, 6, 4), is("Exif"));
+        assertThat(new String(result, 12, 2), is("MM"));
+        // The orientation value of the single IFD entry
+        assertThat((result[30] << 8) | result[31], is(6));
+        assertThat(result[38] & 0xFF, is(0xFF));
+        assertThat(result[39] & 0xFF, is(0xD9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddOrientation_notJpeg() {
+        Exif.addOrientation(new byte[]{1, 2, 3}, 3, 0);
+    }
+
+    @Test
+    public void testInsertOrientation() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+        byte[] data = new byte[Exif.ORIENTATION_SEGMENT_SIZE + jpeg.length];
+        System.arraycopy(jpeg, 0, data, Exif.ORIENTATION_SEGMENT_SIZE, jpeg.length);
+        Exif.insertOrientation(data, 270);
+        assertThat(data, is(Exif.addOrientation(jpeg, jpeg.length, 270)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertOrientation_noRoom() {
+        Exif.insertOrientation(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9}, 0);
+    }
+
+    @Test
+    public void testFindThumbnail() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            ByteBuffer jpeg = jpegWithThumbnail(order, 5);
+            int[] range = Exif.findThumbnail(jpeg);
+            assertThat(range[1], is(5));
+            assertThat(jpeg.get(range[0]) & 0xFF, is(0xFF));
+            assertThat(jpeg.get(range[0] + 1) & 0xFF, is(0xD8));
+            assertThat(jpeg.position(), is(0));
+        }
+    }
+
+    @Test
+    public void testFindThumbnail_offsetBuffer() {
+        ByteBuffer jpeg = jpegWithThumbnail(ByteOrder.BIG_ENDIAN, 5);
+        ByteBuffer shifted = ByteBuffer.allocate(jpeg.capacity() + 3);
+        shifted.position(3);
+        shifted.put(jpeg.duplicate());
+        shifted.position(3);
+        int[] range = Exif.findThumbnail(shifted);
+        assertThat(range[0], is(Exif.findThumbnail(jpeg)[0]));
+    }
+
+    @Test
+    public void testFindThumbnail_none() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9};
+        assertThat(Exif.findThumbnail(ByteBuffer.wrap(jpeg)), is((int[]) null));
+        // Only IFD0
+        byte[] oriented = Exif.addOrientation(jpeg, 4, 90);
+        assertThat(Exif.findThumbnail(ByteBuffer.wrap(oriented)), is((int[]) null));
+    }
+
+    @Test
+    public void testFindThumbnail_truncated() {
+        ByteBuffer jpeg = jpegWithThumbnail(ByteOrder.LITTLE_ENDIAN, 5);
+        jpeg.limit(jpeg.limit() - 10);
+        assertThat(Exif.findThumbnail(jpeg), is((int[]) null));
+        assertThat(Exif.findThumbnail(ByteBuffer.wrap(new byte[]{1, 2})), is((int[]) null));
+    }
+
+    @Test
+    public void testToDegrees() {
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertThat(Exif.toDegrees(Exif.toOrientation(degrees)), is(degrees));
+        }
+        assertThat(Exif.toDegrees(0), is(0));
+        assertThat(Exif.toDegrees(2), is(0));
+    }
+
+    @Test
+    public void testGetOrientation() {
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(640, 480), 2 + 13 + 2, 270);
+        assertThat(Exif.getOrientation(ByteBuffer.wrap(jpeg)), is(8));
+        assertThat(Exif.getOrientation(ByteBuffer.wrap(jpegWithSize(640, 480))), is(0));
+        assertThat(Exif.getOrientation(jpegWithThumbnail(ByteOrder.LITTLE_ENDIAN, 5)), is(0));
+    }
+
+    @Test
+    public void testSetOrientation() {
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(640, 480), 2 + 13 + 2, 90);
+        byte[] copy = jpeg.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg);
+        assertThat(Exif.setOrientation(buffer, 1), is(true));
+        assertThat(Exif.getOrientation(buffer), is(1));
+        assertThat(buffer.position(), is(0));
+        // Only the value of the tag changes
+        int changed = 0;
+        for (int i = 0; i < jpeg.length; i++) {
+            if (jpeg[i] != copy[i]) {
+                changed++;
+            }
+        }
+        assertThat(changed, is(1));
+    }
+
+    @Test
+    public void testSetOrientation_noTag() {
+        byte[] jpeg = jpegWithSize(640, 480);
+        assertThat(Exif.setOrientation(ByteBuffer.wrap(jpeg), 1), is(false));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testSetOrientation_readOnly() {
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(640, 480), 2 + 13 + 2, 90);
+        Exif.setOrientation(ByteBuffer.wrap(jpeg).asReadOnlyBuffer(), 1);
+    }
+
+    @Test
+    public void testGetSize() {
+        Size size = Exif.getSize(ByteBuffer.wrap(
+                Exif.addOrientation(jpegWithSize(4032, 3024), 2 + 13 + 2, 0)));
+        assertThat(size, is(new Size(4032, 3024)));
+        assertThat(Exif.getSize(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8})),
+                is((Size) null));
+    }
+
+    @Test
+    public void testNormalizeOrientation_tagOnly() {
+        // The camera only set the tag
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(640, 480), 2 + 13 + 2, 90);
+        assertThat(Exif.normalizeOrientation(ByteBuffer.wrap(jpeg), 640, 480), is(90));
+        assertThat(Exif.getOrientation(ByteBuffer.wrap(jpeg)), is(6));
+    }
+
+    @Test
+    public void testNormalizeOrientation_rotatedTwice() {
+        // The camera turned the pixels and set the tag
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(480, 640), 2 + 13 + 2, 90);
+        assertThat(Exif.normalizeOrientation(ByteBuffer.wrap(jpeg), 640, 480), is(0));
+        assertThat(Exif.getOrientation(ByteBuffer.wrap(jpeg)), is(1));
+    }
+
+    @Test
+    public void testNormalizeOrientation_readOnly() {
+        byte[] jpeg = Exif.addOrientation(jpegWithSize(480, 640), 2 + 13 + 2, 270);
+        ByteBuffer buffer = ByteBuffer.wrap(jpeg).asReadOnlyBuffer();
+        assertThat(Exif.normalizeOrientation(buffer, 640, 480), is(0));
+        assertThat(Exif.getOrientation(buffer), is(8));
+    }
+
+    @Test
+    public void testNormalizeOrientation_pixelsOnly() {
+        // The camera turned the pixels without a tag
+        byte[] jpeg = jpegWithSize(480, 640);
+        assertThat(Exif.normalizeOrientation(ByteBuffer.wrap(jpeg), 640, 480), is(0));
+        // A half turn cannot be told apart
+        jpeg = Exif.addOrientation(jpegWithSize(640, 480), 2 + 13 + 2, 180);
+        assertThat(Exif.normalizeOrientation(ByteBuffer.wrap(jpeg), 640, 480), is(180));
+    }
+
+    /**
+     * Builds a JPEG file with only a start-of-frame segment for a single component.
+     */
+    private static byte[] jpegWithSize(int width, int height) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 13 + 2);
+        buffer.put((byte) 0xFF).put((byte) 0xD8);
+        buffer.put((byte) 0xFF).put((byte) 0xC0);
+        buffer.putShort((short) 11);
+        buffer.put((byte) 8);
+        buffer.putShort((short) height);
+        buffer.putShort((short) width);
+        buffer.put(new byte[]{1, 1, 0x11, 0});
+        buffer.put((byte) 0xFF).put((byte) 0xD9);
+        return buffer.array();
+    }
+
+    /**
+     * Builds a JPEG file whose EXIF metadata holds an empty IFD0 and an IFD1 pointing to a
+     * thumbnail of {@code length} bytes.
+     */
+    private static ByteBuffer jpegWithThumbnail(ByteOrder order, int length) {
+        // TIFF header, IFD0 with no entries, IFD1 with two entries, thumbnail
+        int tiffSize = 8 + (2 + 4) + (2 + 2 * 12 + 4) + length;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + 2 + 2 + 6 + tiffSize + 2);
+        buffer.put((byte) 0xFF).put((byte) 0xD8);
+        buffer.put((byte) 0xFF).put((byte) 0xE1);
+        buffer.putShort((short) (2 + 6 + tiffSize));
+        buffer.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        buffer.order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.putShort((short) 42);
+        buffer.putInt(8);
+        // IFD0
+        buffer.putShort((short) 0);
+        buffer.putInt(14);
+        // IFD1
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(44);
+        buffer.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(length);
+        buffer.putInt(0);
+        byte[] thumbnail = new byte[length];
+        thumbnail[0] = (byte) 0xFF;
+        thumbnail[1] = (byte) 0xD8;
+        buffer.put(thumbnail);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) 0xFF).put((byte) 0xD9);
+        buffer.flip();
+        return buffer;
+    }
+
+}
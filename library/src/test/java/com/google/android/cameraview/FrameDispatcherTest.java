@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FrameDispatcherTest {
+
+    /**
+     * Blocks in {@link #onDeliver(Integer)} until the gate is opened.
+     */
+    private static class TestDispatcher extends FrameDispatcher<Integer> {
+
+        final List<Integer> delivered = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final List<Integer> released = Collections.synchronizedList(new ArrayList<Integer>());
+
+        final CountDownLatch entered = new CountDownLatch(1);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        TestDispatcher() {
+            super("TestDispatcher");
+        }
+
+        @Override
+        void onDeliver(Integer frame) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            delivered.add(frame);
+        }
+
+        @Override
+        void onRelease(Integer frame) {
+            released.add(frame);
+        }
+
+    }
+
+    @Test
+    public void testKeepLatest() throws Exception {
+        TestDispatcher dispatcher = new TestDispatcher();
+        dispatcher.start();
+        dispatcher.offer(0);
+        assertThat(dispatcher.entered.await(1, TimeUnit.SECONDS), is(true));
+        dispatcher.offer(1);
+        dispatcher.offer(2);
+        dispatcher.offer(3);
+        assertThat(dispatcher.getDroppedCount(), is(2L));
+        assertThat(dispatcher.released.size(), is(2));
+        dispatcher.gate.countDown();
+        waitForReleased(dispatcher, 4);
+        assertThat(dispatcher.delivered.toString(), is("[0, 3]"));
+        dispatcher.stop();
+        assertThat(dispatcher.getDeliveredCount(), is(2L));
+    }
+
+    @Test
+    public void testBoundedQueue() throws Exception {
+        TestDispatcher dispatcher = new TestDispatcher();
+        dispatcher.setStrategy(FrameDispatcher.BOUNDED_QUEUE, 2);
+        dispatcher.start();
+        dispatcher.offer(0);
+        assertThat(dispatcher.entered.await(1, TimeUnit.SECONDS), is(true));
+        for (int i = 1; i <= 4; i++) {
+            dispatcher.offer(i);
+        }
+        assertThat(dispatcher.getDroppedCount(), is(2L));
+        dispatcher.gate.countDown();
+        waitForReleased(dispatcher, 5);
+        assertThat(dispatcher.delivered.toString(), is("[0, 3, 4]"));
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        final TestDispatcher dispatcher = new TestDispatcher();
+        dispatcher.setStrategy(FrameDispatcher.BLOCK, 1);
+        dispatcher.start();
+        dispatcher.offer(0);
+        assertThat(dispatcher.entered.await(1, TimeUnit.SECONDS), is(true));
+        dispatcher.offer(1);
+        final CountDownLatch offered = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatcher.offer(2);
+                offered.countDown();
+            }
+        }).start();
+        assertThat(offered.await(100, TimeUnit.MILLISECONDS), is(false));
+        dispatcher.gate.countDown();
+        assertThat(offered.await(1, TimeUnit.SECONDS), is(true));
+        waitForReleased(dispatcher, 3);
+        assertThat(dispatcher.delivered.toString(), is("[0, 1, 2]"));
+        assertThat(dispatcher.getDroppedCount(), is(0L));
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testStop_releasesPending() throws Exception {
+        TestDispatcher dispatcher = new TestDispatcher();
+        dispatcher.setStrategy(FrameDispatcher.BOUNDED_QUEUE, 3);
+        dispatcher.start();
+        dispatcher.offer(0);
+        assertThat(dispatcher.entered.await(1, TimeUnit.SECONDS), is(true));
+        dispatcher.offer(1);
+        dispatcher.offer(2);
+        dispatcher.gate.countDown();
+        dispatcher.stop();
+        assertThat(dispatcher.released.size(), is(3));
+        assertThat(dispatcher.offer(3), is(false));
+        assertThat(dispatcher.released.size(), is(4));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSetStrategy_running() {
+        TestDispatcher dispatcher = new TestDispatcher();
+        dispatcher.start();
+        try {
+            dispatcher.setStrategy(FrameDispatcher.BOUNDED_QUEUE, 2);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    private static void waitForReleased(TestDispatcher dispatcher, int count)
+            throws InterruptedException {
+        for (int i = 0; i < 100 && dispatcher.released.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(dispatcher.released.size(), is(count));
+    }
+
+}
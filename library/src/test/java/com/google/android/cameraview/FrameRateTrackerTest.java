@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class FrameRateTrackerTest {
+
+    private static final long INTERVAL = 33333333L;
+
+    @Test
+    public void testEmpty() {
+        PreviewMetrics metrics = new FrameRateTracker().getMetrics();
+        assertThat(metrics.getFrameRate(), is(0f));
+        assertThat(metrics.getFrameCount(), is(0L));
+        assertThat(metrics.getDroppedFrameCount(), is(0L));
+    }
+
+    @Test
+    public void testSteadyFrameRate() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        for (int i = 0; i < 100; i++) {
+            tracker.onFrame(i * INTERVAL);
+        }
+        PreviewMetrics metrics = tracker.getMetrics();
+        assertThat(Math.round(metrics.getFrameRate()), is(30));
+        assertThat(metrics.getJitter(), is(0L));
+        assertThat(metrics.getFrameCount(), is(100L));
+    }
+
+    @Test
+    public void testJitter() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        long timestamp = 0;
+        tracker.onFrame(timestamp);
+        for (int i = 0; i < FrameRateTracker.WINDOW; i++) {
+            timestamp += i % 2 == 0 ? INTERVAL - 1000000 : INTERVAL + 1000000;
+            tracker.onFrame(timestamp);
+        }
+        assertThat(tracker.getMetrics().getJitter(), is(1000000L));
+    }
+
+    @Test
+    public void testDroppedFrames() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        tracker.setTargetFrameRate(30, 30);
+        tracker.onFrame(0);
+        tracker.onFrame(INTERVAL);
+        // Two frames are missing.
+        tracker.onFrame(4 * INTERVAL);
+        tracker.onFrame(5 * INTERVAL);
+        PreviewMetrics metrics = tracker.getMetrics();
+        assertThat(metrics.getDroppedFrameCount(), is(2L));
+        assertThat(metrics.getMinTargetFrameRate(), is(30));
+        assertThat(metrics.getMaxTargetFrameRate(), is(30));
+    }
+
+    @Test
+    public void testNoDropsWithinRange() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        tracker.setTargetFrameRate(15, 30);
+        tracker.onFrame(0);
+        tracker.onFrame(2 * INTERVAL);
+        assertThat(tracker.getMetrics().getDroppedFrameCount(), is(0L));
+    }
+
+    @Test
+    public void testPause() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        tracker.setTargetFrameRate(30, 30);
+        tracker.onFrame(0);
+        tracker.pause();
+        tracker.onFrame(100 * INTERVAL);
+        PreviewMetrics metrics = tracker.getMetrics();
+        assertThat(metrics.getDroppedFrameCount(), is(0L));
+        assertThat(metrics.getFrameCount(), is(2L));
+        assertThat(tracker.hasTargetFrameRate(), is(false));
+    }
+
+    @Test
+    public void testReset() {
+        FrameRateTracker tracker = new FrameRateTracker();
+        tracker.onFrame(0);
+        tracker.onFrame(INTERVAL);
+        tracker.reset();
+        PreviewMetrics metrics = tracker.getMetrics();
+        assertThat(metrics.getFrameCount(), is(0L));
+        assertThat(metrics.getFrameRate(), is(0f));
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PictureSaverTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private PictureSaver mSaver;
+
+    @Before
+    public void setUp() {
+        mSaver = new PictureSaver();
+    }
+
+    @After
+    public void tearDown() {
+        mSaver.close();
+    }
+
+    @Test
+    public void testSaveFile() throws Exception {
+        File file = new File(mFolder.getRoot(), "picture.jpg");
+        Picture picture = createPicture(1, 2, 3, 4);
+        RecordingCallback callback = new RecordingCallback(1);
+        mSaver.save(picture, file, callback);
+        picture.close();
+        callback.await();
+        assertThat(callback.mFile, is(file));
+        assertThat(callback.mSize, is(4L));
+        assertThat(readFile(file), is(new byte[]{1, 2, 3, 4}));
+        assertThat(mFolder.getRoot().list(), is(new String[]{"picture.jpg"}));
+        assertThat(picture.isReleased(), is(true));
+        assertThat(mSaver.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void testSaveBurst() throws Exception {
+        RecordingCallback callback = new RecordingCallback(3);
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(mFolder.getRoot(), "burst" + i + ".jpg");
+            Picture picture = createPicture(i).setBurst(i, files.length);
+            mSaver.save(picture, files[i], callback);
+            picture.close();
+        }
+        callback.await();
+        for (int i = 0; i < files.length; i++) {
+            assertThat(readFile(files[i]), is(new byte[]{(byte) i}));
+        }
+    }
+
+    @Test
+    public void testSaveBurstSyncedAtEnd() throws Exception {
+        File first = new File(mFolder.getRoot(), "burst0.jpg");
+        RecordingCallback callback = new RecordingCallback(2);
+        Picture picture = createPicture(1).setBurst(0, 2);
+        mSaver.save(picture, first, callback);
+        picture.close();
+        // Written after the first picture, which is then waiting for the end of the burst.
+        RecordingCallback streamCallback = new RecordingCallback(1);
+        Picture marker = createPicture(2).setBurst(0, 2);
+        mSaver.save(marker, new ByteArrayOutputStream(), streamCallback);
+        marker.close();
+        streamCallback.await();
+        assertThat(callback.getCount(), is(2L));
+        assertThat(first.exists(), is(false));
+        File last = new File(mFolder.getRoot(), "burst1.jpg");
+        picture = createPicture(3).setBurst(1, 2);
+        mSaver.save(picture, last, callback);
+        picture.close();
+        callback.await();
+        assertThat(readFile(first), is(new byte[]{1}));
+        assertThat(readFile(last), is(new byte[]{3}));
+    }
+
+    @Test
+    public void testSaveSameFileTwice() throws Exception {
+        File file = new File(mFolder.getRoot(), "picture.jpg");
+        RecordingCallback callback = new RecordingCallback(2);
+        for (int i = 0; i < 2; i++) {
+            Picture picture = createPicture(i + 1, i + 1).setBurst(i, 2);
+            mSaver.save(picture, file, callback);
+            picture.close();
+        }
+        callback.await();
+        assertThat(callback.mError, is(nullValue()));
+        assertThat(readFile(file), is(new byte[]{2, 2}));
+        assertThat(mFolder.getRoot().list(), is(new String[]{"picture.jpg"}));
+    }
+
+    @Test
+    public void testCloseSyncsUnfinishedBurst() throws Exception {
+        File file = new File(mFolder.getRoot(), "burst0.jpg");
+        RecordingCallback callback = new RecordingCallback(1);
+        Picture picture = createPicture(1).setBurst(0, 3);
+        mSaver.save(picture, file, callback);
+        picture.close();
+        mSaver.close();
+        callback.await();
+        assertThat(callback.mError, is(nullValue()));
+        assertThat(readFile(file), is(new byte[]{1}));
+    }
+
+    @Test
+    public void testSaveStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RecordingCallback callback = new RecordingCallback(1);
+        Picture picture = createPicture(5, 6);
+        mSaver.save(picture, out, callback);
+        picture.close();
+        callback.await();
+        assertThat(callback.mFile, is(nullValue()));
+        assertThat(callback.mSize, is(2L));
+        assertThat(out.toByteArray(), is(new byte[]{5, 6}));
+    }
+
+    @Test
+    public void testSaveFailed() throws Exception {
+        File file = new File(new File(mFolder.getRoot(), "missing"), "picture.jpg");
+        RecordingCallback callback = new RecordingCallback(1);
+        Picture picture = createPicture(1);
+        mSaver.save(picture, file, callback);
+        picture.close();
+        callback.await();
+        assertThat(callback.mError, is(instanceOf(IOException.class)));
+        assertThat(picture.isReleased(), is(true));
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        mSaver.close();
+        mSaver = new PictureSaver(1);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        OutputStream blocking = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RecordingCallback callback = new RecordingCallback(1);
+        mSaver.save(createPicture(1), blocking, callback);
+        writing.await(5, TimeUnit.SECONDS);
+        // One picture is being written, and one waits in the queue.
+        mSaver.save(createPicture(2), blocking, new RecordingCallback(1));
+        Picture rejected = createPicture(3);
+        RecordingCallback rejectedCallback = new RecordingCallback(1);
+        mSaver.save(rejected, blocking, rejectedCallback);
+        rejected.close();
+        assertThat(rejectedCallback.mError, is(instanceOf(IOException.class)));
+        assertThat(rejected.isReleased(), is(true));
+        assertThat(mSaver.getQueueDepth(), is(2));
+        release.countDown();
+        callback.await();
+    }
+
+    private static Picture createPicture(int... bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        for (int b : bytes) {
+            buffer.put((byte) b);
+        }
+        buffer.flip();
+        return new Picture(buffer);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    private static class RecordingCallback implements PictureSaver.Callback {
+
+        private final CountDownLatch mLatch;
+
+        volatile File mFile;
+
+        volatile long mSize;
+
+        volatile IOException mError;
+
+        RecordingCallback(int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onPictureSaved(File file, long size, long latency) {
+            mFile = file;
+            mSize = size;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onSaveFailed(File file, IOException e) {
+            mFile = file;
+            mError = e;
+            mLatch.countDown();
+        }
+
+        long getCount() {
+            return mLatch.getCount();
+        }
+
+        void await() throws InterruptedException {
+            assertThat(mLatch.await(5, TimeUnit.SECONDS), is(true));
+        }
+
+    }
+
+}
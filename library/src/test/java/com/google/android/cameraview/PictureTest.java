@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class PictureTest {
+
+    @Test
+    public void testGetBytes_array() {
+        byte[] data = {1, 2, 3};
+        Picture picture = new Picture(data);
+        assertThat(picture.getSize(), is(3));
+        assertThat(picture.getBytes(), is(sameInstance(data)));
+    }
+
+    @Test
+    public void testGetBytes_buffer() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put(new byte[]{1, 2, 3, 4});
+        buffer.flip();
+        buffer.position(1);
+        Picture picture = new Picture(buffer);
+        byte[] bytes = picture.getBytes();
+        assertThat(bytes.length, is(3));
+        assertThat(bytes[0], is((byte) 2));
+        assertThat(picture.getBytes(), is(sameInstance(bytes)));
+    }
+
+    @Test
+    public void testGetBuffer_readOnly() {
+        Picture picture = new Picture(new byte[]{1, 2});
+        ByteBuffer buffer = picture.getBuffer();
+        assertThat(buffer.isReadOnly(), is(true));
+        buffer.get();
+        assertThat(picture.getBuffer().remaining(), is(2));
+    }
+
+    @Test
+    public void testBurst() {
+        Picture picture = new Picture(new byte[]{1});
+        assertThat(picture.getBurstIndex(), is(0));
+        assertThat(picture.getBurstCount(), is(1));
+        assertThat(picture.setBurst(2, 5), is(sameInstance(picture)));
+        assertThat(picture.getBurstIndex(), is(2));
+        assertThat(picture.getBurstCount(), is(5));
+    }
+
+    @Test
+    public void testRetain() {
+        final int[] released = {0};
+        Picture picture = new Picture(new byte[]{1}) {
+            @Override
+            void onRelease() {
+                released[0]++;
+            }
+        };
+        picture.retain();
+        picture.close();
+        assertThat(released[0], is(0));
+        assertThat(picture.isReleased(), is(false));
+        picture.close();
+        assertThat(released[0], is(1));
+        assertThat(picture.isReleased(), is(true));
+        picture.close();
+        assertThat(released[0], is(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetain_released() {
+        Picture picture = new Picture(new byte[]{1});
+        picture.close();
+        picture.retain();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetBuffer_released() {
+        Picture picture = new Picture(new byte[]{1});
+        picture.close();
+        picture.getBuffer();
+    }
+
+}
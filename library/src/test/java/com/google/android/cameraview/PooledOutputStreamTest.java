@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class PooledOutputStreamTest {
+
+    @Test
+    public void testWriteAfterOffset() {
+        BufferPool pool = new BufferPool(1 << 20);
+        PooledOutputStream out = new PooledOutputStream(pool, 16, 4);
+        out.write(1);
+        out.write(new byte[]{2, 3, 4}, 1, 2);
+        assertThat(out.getCount(), is(7));
+        byte[] buffer = out.getBuffer();
+        assertThat(buffer[4], is((byte) 1));
+        assertThat(buffer[5], is((byte) 3));
+        assertThat(buffer[6], is((byte) 4));
+    }
+
+    @Test
+    public void testGrow() {
+        BufferPool pool = new BufferPool(1 << 20);
+        PooledOutputStream out = new PooledOutputStream(pool, 16, 2);
+        byte[] first = out.getBuffer();
+        byte[] data = new byte[first.length];
+        data[data.length - 1] = 9;
+        out.write(data, 0, data.length);
+        assertThat(out.getBuffer(), is(not(sameInstance(first))));
+        assertThat(out.getCount(), is(2 + data.length));
+        assertThat(out.getBuffer()[1 + data.length], is((byte) 9));
+        // The full array went back to the pool.
+        assertThat(pool.acquire(16), is(sameInstance(first)));
+    }
+
+}
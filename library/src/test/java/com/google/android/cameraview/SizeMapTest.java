@@ -17,10 +17,15 @@
 package com.google.android.cameraview;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 import org.junit.Test;
 
+import java.util.Iterator;
+import java.util.SortedSet;
+
 public class SizeMapTest {
 
     @Test
@@ -52,4 +57,105 @@ public class SizeMapTest {
         assertThat(map.ratios().size(), is(0));
     }
 
+    @Test
+    public void testSizes_sorted() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(1920, 1080));
+        map.add(new Size(640, 360));
+        map.add(new Size(1280, 720));
+        assertThat(map.add(new Size(1280, 720)), is(false));
+        SortedSet<Size> sizes = map.sizes(AspectRatio.of(16, 9));
+        assertThat(sizes.size(), is(3));
+        Iterator<Size> iterator = sizes.iterator();
+        assertThat(iterator.next(), is(new Size(640, 360)));
+        assertThat(iterator.next(), is(new Size(1280, 720)));
+        assertThat(iterator.next(), is(new Size(1920, 1080)));
+        assertThat(sizes.first(), is(new Size(640, 360)));
+        assertThat(sizes.last(), is(new Size(1920, 1080)));
+        assertThat(sizes.contains(new Size(1280, 720)), is(true));
+        assertThat(sizes.contains(new Size(1280, 960)), is(false));
+        assertThat(sizes.tailSet(new Size(1280, 720)).size(), is(2));
+        assertThat(sizes.headSet(new Size(1280, 720)).size(), is(1));
+        assertThat(map.sizes(AspectRatio.of(4, 3)), is(nullValue()));
+    }
+
+    @Test
+    public void testCeiling() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 960));
+        map.add(new Size(2560, 1920));
+        map.add(new Size(1920, 1080));
+        AspectRatio ratio = AspectRatio.of(4, 3);
+        assertThat(map.ceiling(ratio, 640, 480), is(new Size(640, 480)));
+        assertThat(map.ceiling(ratio, 641, 100), is(new Size(1280, 960)));
+        assertThat(map.ceiling(ratio, 100, 961), is(new Size(2560, 1920)));
+        assertThat(map.ceiling(ratio, 4000, 3000), is(nullValue()));
+        assertThat(map.ceiling(AspectRatio.of(1, 1), 1, 1), is(nullValue()));
+        assertThat(map.largest(ratio), is(new Size(2560, 1920)));
+    }
+
+    @Test
+    public void testRemove() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(4, 3));
+        map.add(new Size(16, 9));
+        map.remove(AspectRatio.of(4, 3));
+        assertThat(map.ratios().size(), is(1));
+        assertThat(map.ratios().contains(AspectRatio.of(16, 9)), is(true));
+        assertThat(map.sizes(AspectRatio.of(4, 3)), is(nullValue()));
+    }
+
+    @Test
+    public void testSnapshot() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(4, 3));
+        SizeMap snapshot = map.snapshot();
+        SortedSet<Size> sizes = snapshot.sizes(AspectRatio.of(4, 3));
+        map.add(new Size(8, 6));
+        map.add(new Size(16, 9));
+        assertThat(snapshot.ratios().size(), is(1));
+        assertThat(sizes.size(), is(1));
+        assertThat(snapshot.sizes(AspectRatio.of(4, 3)).size(), is(1));
+        assertThat(map.sizes(AspectRatio.of(4, 3)).size(), is(2));
+        assertThat(snapshot.isImmutable(), is(true));
+        assertThat(snapshot.snapshot(), is(sameInstance(snapshot)));
+    }
+
+    @Test
+    public void testSnapshot_grown() {
+        SizeMap map = new SizeMap();
+        for (int i = 20; i > 0; i--) {
+            map.add(new Size(4 * i, 3 * i));
+            map.add(new Size(i, 1));
+        }
+        SortedSet<Size> sizes = map.sizes(AspectRatio.of(4, 3));
+        map.add(new Size(84, 63));
+        SizeMap snapshot = map.snapshot();
+        map.clear();
+        assertThat(sizes.size(), is(20));
+        assertThat(snapshot.ratios().size(), is(21));
+        assertThat(snapshot.sizes(AspectRatio.of(4, 3)).size(), is(21));
+        assertThat(snapshot.sizes(AspectRatio.of(4, 3)).first(), is(new Size(4, 3)));
+        assertThat(snapshot.largest(AspectRatio.of(4, 3)), is(new Size(84, 63)));
+        assertThat(snapshot.pack().length, is(41));
+        assertThat(map.isEmpty(), is(true));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshot_immutable() {
+        new SizeMap().snapshot().add(new Size(4, 3));
+    }
+
+    @Test
+    public void testPack() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(16, 9));
+        map.add(new Size(4, 3));
+        long[] packed = map.pack();
+        assertThat(packed.length, is(2));
+        assertThat(SizeMap.unpack(packed[0]), is(new Size(4, 3)));
+        assertThat(SizeMap.unpack(packed[1]), is(new Size(16, 9)));
+    }
+
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.SortedSet;
+
+public class SizeSelectorTest {
+
+    private static final AspectRatio RATIO = AspectRatio.of(4, 3);
+
+    private static SizeMap createSizes() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(320, 240));
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 960));
+        map.add(new Size(4000, 3000));
+        return map.snapshot();
+    }
+
+    @Test
+    public void testSmallestCovering() {
+        SortedSet<Size> sizes = createSizes().sizes(RATIO);
+        SizeSelector selector = SizeSelector.smallestCovering();
+        assertThat(selector.select(sizes, 600, 400), is(new Size(640, 480)));
+        assertThat(selector.select(sizes, 641, 100), is(new Size(1280, 960)));
+        assertThat(selector.select(sizes, 5000, 100), is(new Size(4000, 3000)));
+    }
+
+    @Test
+    public void testLargest() {
+        SortedSet<Size> sizes = createSizes().sizes(RATIO);
+        assertThat(SizeSelector.largest().select(sizes, 1, 1), is(new Size(4000, 3000)));
+    }
+
+    @Test
+    public void testClosestTo() {
+        SortedSet<Size> sizes = createSizes().sizes(RATIO);
+        assertThat(SizeSelector.closestTo(1000000).select(sizes, 0, 0), is(new Size(1280, 960)));
+        assertThat(SizeSelector.closestTo(0).select(sizes, 0, 0), is(new Size(320, 240)));
+    }
+
+    @Test
+    public void testMaxUnderMemory() {
+        SortedSet<Size> sizes = createSizes().sizes(RATIO);
+        assertThat(SizeSelector.maxUnderMemory(1280 * 960 * 4, 4).select(sizes, 0, 0),
+                is(new Size(1280, 960)));
+        assertThat(SizeSelector.maxUnderMemory(1, 4).select(sizes, 0, 0),
+                is(new Size(320, 240)));
+    }
+
+    @Test
+    public void testMemoized() {
+        final int[] calls = {0};
+        MemoizedSizeSelector selector = new MemoizedSizeSelector(new SizeSelector() {
+            @Override
+            public Size select(SortedSet<Size> sizes, int width, int height) {
+                calls[0]++;
+                return sizes.first();
+            }
+        });
+        SizeMap sizes = createSizes();
+        assertThat(selector.select("0", sizes, RATIO, 100, 100), is(new Size(320, 240)));
+        assertThat(selector.select("0", sizes, RATIO, 100, 100), is(new Size(320, 240)));
+        assertThat(calls[0], is(1));
+        assertThat(selector.getHitCount(), is(1L));
+        selector.select("1", sizes, RATIO, 100, 100);
+        selector.select("0", sizes, RATIO, 100, 200);
+        selector.select("0", createSizes(), RATIO, 100, 100);
+        assertThat(calls[0], is(4));
+        assertThat(selector.select("0", sizes, AspectRatio.of(16, 9), 100, 100),
+                is(nullValue()));
+    }
+
+    @Test
+    public void testMemoized_mutable() {
+        final int[] calls = {0};
+        MemoizedSizeSelector selector = new MemoizedSizeSelector(new SizeSelector() {
+            @Override
+            public Size select(SortedSet<Size> sizes, int width, int height) {
+                calls[0]++;
+                return sizes.last();
+            }
+        });
+        SizeMap sizes = new SizeMap();
+        sizes.add(new Size(4, 3));
+        assertThat(selector.select("0", sizes, RATIO, 1, 1), is(new Size(4, 3)));
+        sizes.add(new Size(8, 6));
+        assertThat(selector.select("0", sizes, RATIO, 1, 1), is(new Size(8, 6)));
+        assertThat(calls[0], is(2));
+    }
+
+}
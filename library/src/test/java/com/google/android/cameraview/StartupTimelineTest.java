@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void testStart() {
+        StartupTimeline timeline = StartupTimeline.start();
+        assertThat(timeline.hasEvent(StartupTimeline.EVENT_STARTED), is(true));
+        assertThat(timeline.hasEvent(StartupTimeline.EVENT_OPENED), is(false));
+        assertThat(timeline.getTimeToFirstFrame(), is(-1L));
+    }
+
+    @Test
+    public void testTimeToFirstFrame() {
+        StartupTimeline timeline = StartupTimeline.start();
+        long started = timeline.getTime(StartupTimeline.EVENT_STARTED);
+        timeline.mark(StartupTimeline.EVENT_OPEN_REQUESTED, started + 10);
+        timeline.mark(StartupTimeline.EVENT_OPENED, started + 110);
+        timeline.mark(StartupTimeline.EVENT_FIRST_FRAME, started + 300);
+        assertThat(timeline.getDuration(StartupTimeline.EVENT_OPEN_REQUESTED,
+                StartupTimeline.EVENT_OPENED), is(100L));
+        assertThat(timeline.getTimeToFirstFrame(), is(300L));
+    }
+
+    @Test
+    public void testMarkOnce() {
+        StartupTimeline timeline = StartupTimeline.start();
+        assertThat(timeline.mark(StartupTimeline.EVENT_FIRST_FRAME, 10), is(true));
+        assertThat(timeline.mark(StartupTimeline.EVENT_FIRST_FRAME, 20), is(false));
+        assertThat(timeline.getTime(StartupTimeline.EVENT_FIRST_FRAME), is(10L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetTimeNotRecorded() {
+        StartupTimeline.start().getTime(StartupTimeline.EVENT_CONFIGURED);
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class ThumbnailGeneratorTest {
+
+    @Test
+    public void testComputeSampleSize() {
+        assertThat(ThumbnailGenerator.computeSampleSize(4032, 3024, 256), is(8));
+        assertThat(ThumbnailGenerator.computeSampleSize(3024, 4032, 256), is(8));
+        assertThat(ThumbnailGenerator.computeSampleSize(4096, 3072, 256), is(16));
+        assertThat(ThumbnailGenerator.computeSampleSize(4095, 3072, 256), is(8));
+    }
+
+    @Test
+    public void testComputeSampleSize_small() {
+        assertThat(ThumbnailGenerator.computeSampleSize(160, 120, 256), is(1));
+        assertThat(ThumbnailGenerator.computeSampleSize(640, 480, 0), is(1));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.cameraview;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ZslRingBufferTest {
+
+    private static class TestRing extends ZslRingBuffer<String> {
+
+        final List<String> released = new ArrayList<>();
+
+        TestRing(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        void onRelease(String frame) {
+            released.add(frame);
+        }
+
+    }
+
+    @Test
+    public void testAdd_evictsOldest() {
+        TestRing ring = new TestRing(2);
+        ring.add("a", 10);
+        ring.add("b", 20);
+        ring.add("c", 30);
+        assertThat(ring.size(), is(2));
+        assertThat(ring.released.toString(), is("[a]"));
+        assertThat(ring.getNewestTimestamp(), is(30L));
+    }
+
+    @Test
+    public void testTake_closest() {
+        TestRing ring = new TestRing(4);
+        ring.add("a", 10);
+        ring.add("b", 20);
+        ring.add("c", 30);
+        assertThat(ring.take(18), is("b"));
+        assertThat(ring.size(), is(2));
+        assertThat(ring.take(25), is("c"));
+        assertThat(ring.take(1000), is("a"));
+        assertThat(ring.take(0), is(nullValue()));
+        assertThat(ring.released.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testTake_keepsOrder() {
+        TestRing ring = new TestRing(3);
+        ring.add("a", 10);
+        ring.add("b", 20);
+        ring.add("c", 30);
+        ring.take(20);
+        ring.add("d", 40);
+        ring.add("e", 50);
+        assertThat(ring.released.toString(), is("[a]"));
+        assertThat(ring.take(0), is("c"));
+        assertThat(ring.getNewestTimestamp(), is(50L));
+    }
+
+    @Test
+    public void testSetCapacity() {
+        TestRing ring = new TestRing(3);
+        ring.add("a", 10);
+        ring.add("b", 20);
+        ring.add("c", 30);
+        ring.setCapacity(2);
+        assertThat(ring.released.toString(), is("[a]"));
+        assertThat(ring.getCapacity(), is(2));
+        ring.add("d", 40);
+        assertThat(ring.released.toString(), is("[a, b]"));
+        ring.clear();
+        assertThat(ring.released.toString(), is("[a, b, c, d]"));
+        assertThat(ring.getNewestTimestamp(), is(Long.MIN_VALUE));
+    }
+
+}